@@ -0,0 +1,178 @@
+package br.ufal.ic.p2.jackut.Concurrency;
+
+import br.ufal.ic.p2.jackut.Facade;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+// Estresse do fluxo de pedidos com varias threads na mesma Facade: clientes abrindo, enchendo e fechando
+// pedidos, donos liberando e entregadores disputando os pedidos prontos. No fim confere as invariantes:
+// no maximo um pedido aberto por (cliente, empresa), numeros sem repeticao, uma entrega por pedido e
+// nenhum entregador com duas entregas ao mesmo tempo.
+// Uso: java br.ufal.ic.p2.jackut.Concurrency.ConcurrencyStress [threads] [operacoes por thread]
+// Zera o sistema no diretorio atual antes e depois: rode num diretorio vazio.
+public class ConcurrencyStress {
+    private static final int EMPRESAS = 8;
+    private static final int CLIENTES = 6;
+    private static final int ENTREGADORES = 6;
+    private static final int PRODUTOS = 4;
+
+    private final Facade facade = new Facade();
+    private final int[] empresas = new int[EMPRESAS];
+    private final int[] clientes = new int[CLIENTES];
+    private final int[] entregadores = new int[ENTREGADORES];
+    private final int[][] produtos = new int[EMPRESAS][PRODUTOS];
+
+    private final Set<Integer> criados = ConcurrentHashMap.newKeySet();
+    private final Map<Integer, AtomicInteger> entregasPorPedido = new ConcurrentHashMap<>();
+    private final AtomicIntegerArray emEntrega = new AtomicIntegerArray(ENTREGADORES);
+    private final List<String> violacoes = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger concluidas = new AtomicInteger();
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors() * 2;
+        int operacoes = args.length > 1 ? Integer.parseInt(args[1]) : 5_000;
+
+        ConcurrencyStress estresse = new ConcurrencyStress();
+        estresse.facade.zerarSistema();
+        estresse.cadastrar();
+
+        long inicio = System.nanoTime();
+        estresse.rodar(threads, operacoes);
+        long tempo = System.nanoTime() - inicio;
+
+        estresse.conferir();
+        System.out.printf("%d threads x %d operacoes em %d ms: %d pedidos, %d entregas concluidas%n",
+                threads, operacoes, tempo / 1_000_000, estresse.criados.size(), estresse.concluidas.get());
+        estresse.facade.zerarSistema();
+
+        if (!estresse.violacoes.isEmpty()) {
+            estresse.violacoes.stream().limit(20).forEach(System.err::println);
+            System.err.println(estresse.violacoes.size() + " violacoes");
+            System.exit(1);
+        }
+        System.out.println("invariantes OK");
+    }
+
+    private void cadastrar() throws Exception {
+        facade.criarUsuario("Dono", "dono@stress", "senha123", "Rua A", "123.456.789-00");
+        int dono = facade.login("dono@stress", "senha123");
+        for (int e = 0; e < EMPRESAS; e++) {
+            empresas[e] = facade.criarEmpresa("restaurante", dono, "Empresa " + e, "Rua " + e, "brasileira");
+            for (int p = 0; p < PRODUTOS; p++) {
+                produtos[e][p] = facade.criarProduto(empresas[e], "Produto " + p, 1.5f * (p + 1), "comida");
+            }
+        }
+        for (int c = 0; c < CLIENTES; c++) {
+            facade.criarUsuario("Cliente " + c, "cliente" + c + "@stress", "senha123", "Rua C" + c);
+            clientes[c] = facade.login("cliente" + c + "@stress", "senha123");
+        }
+        for (int c = 0; c < ENTREGADORES; c++) {
+            facade.criarUsuario("Entregador " + c, "entregador" + c + "@stress", "senha123", "Rua E" + c, "moto", "PLACA" + c);
+            entregadores[c] = facade.login("entregador" + c + "@stress", "senha123");
+            // Cada entregador atende metade das empresas, com sobreposicao entre vizinhos.
+            for (int e = 0; e < EMPRESAS / 2; e++) {
+                facade.cadastrarEntregador(empresas[(c + e) % EMPRESAS], entregadores[c]);
+            }
+        }
+    }
+
+    private void rodar(int threads, int operacoes) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch largada = new CountDownLatch(1);
+        for (int t = 0; t < threads; t++) {
+            executor.submit(() -> {
+                ThreadLocalRandom aleatorio = ThreadLocalRandom.current();
+                try {
+                    largada.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < operacoes; i++) {
+                    try {
+                        if (aleatorio.nextInt(3) == 0) {
+                            entregar(aleatorio);
+                        } else {
+                            pedir(aleatorio);
+                        }
+                    } catch (NoSuchElementException e) {
+                        // mesma resposta de "nao encontrado" da Facade em algumas consultas
+                    } catch (RuntimeException e) {
+                        violacoes.add("excecao inesperada: " + e);
+                    } catch (Exception e) {
+                        // recusa esperada da regra de negocio (pedido ja aberto, entregador ocupado...)
+                    }
+                }
+            });
+        }
+        largada.countDown();
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.HOURS);
+    }
+
+    // Um cliente tenta abrir um pedido (varias threads disputam os mesmos pares), enche, fecha e libera.
+    private void pedir(ThreadLocalRandom aleatorio) throws Exception {
+        int e = aleatorio.nextInt(EMPRESAS);
+        int numero = facade.criarPedido(clientes[aleatorio.nextInt(CLIENTES)], empresas[e]);
+        if (!criados.add(numero)) {
+            violacoes.add("numero de pedido repetido: " + numero);
+        }
+        for (int p = aleatorio.nextInt(1, 4); p > 0; p--) {
+            facade.adicionarProduto(numero, produtos[e][aleatorio.nextInt(PRODUTOS)]);
+        }
+        facade.fecharPedido(numero);
+        facade.liberarPedido(numero);
+    }
+
+    // Um entregador pega o proximo pedido pronto; outras threads podem estar disputando o mesmo pedido.
+    private void entregar(ThreadLocalRandom aleatorio) throws Exception {
+        int c = aleatorio.nextInt(ENTREGADORES);
+        int pedido = facade.obterPedido(entregadores[c]);
+        int entrega = facade.criarEntrega(pedido, entregadores[c], null);
+        if (entregasPorPedido.computeIfAbsent(pedido, k -> new AtomicInteger()).incrementAndGet() > 1) {
+            violacoes.add("pedido " + pedido + " entregue por mais de uma entrega");
+        }
+        if (emEntrega.incrementAndGet(c) > 1) {
+            violacoes.add("entregador " + entregadores[c] + " com duas entregas ao mesmo tempo");
+        }
+        emEntrega.decrementAndGet(c);
+        facade.entregar(entrega);
+        concluidas.incrementAndGet();
+    }
+
+    private void conferir() throws Exception {
+        Set<Integer> vistos = new HashSet<>();
+        for (int cliente : clientes) {
+            for (int empresa : empresas) {
+                int abertos = 0;
+                for (int i = 0; ; i++) {
+                    int numero;
+                    try {
+                        numero = facade.getNumeroPedido(cliente, empresa, i);
+                    } catch (Exception | Error e) {
+                        break;
+                    }
+                    if (!vistos.add(numero)) {
+                        violacoes.add("pedido " + numero + " em mais de um par");
+                    }
+                    if (facade.getPedidos(numero, "estado").equals("aberto")) {
+                        abertos++;
+                    }
+                }
+                if (abertos > 1) {
+                    violacoes.add(abertos + " pedidos abertos para cliente " + cliente + " e empresa " + empresa);
+                }
+            }
+        }
+        if (!vistos.equals(criados)) {
+            violacoes.add(criados.size() + " pedidos criados, " + vistos.size() + " encontrados");
+        }
+        for (Map.Entry<Integer, AtomicInteger> e : entregasPorPedido.entrySet()) {
+            if (!facade.getPedidos(e.getKey(), "estado").equals("entregue")) {
+                violacoes.add("pedido " + e.getKey() + " com entrega concluida nao esta entregue");
+            }
+        }
+    }
+}
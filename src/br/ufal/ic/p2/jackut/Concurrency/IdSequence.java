@@ -0,0 +1,80 @@
+package br.ufal.ic.p2.jackut.Concurrency;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Sequencia de ids sem um contador disputado a cada entidade criada. A marca (o fim do ultimo bloco
+// reservado) e atomica; cada canal reserva dela TAMANHO_BLOCO ids de uma vez e os entrega em ordem.
+// O canal e o da thread (proximo()) ou o de uma chave (proximo(chave)); ids do mesmo canal sempre crescem.
+// Nenhum id abaixo da marca volta a ser entregue, entao e ela que se persiste.
+public class IdSequence {
+    private static final int TAMANHO_BLOCO = 64;
+    private static final int CANAIS = 64;
+
+    private static final class Bloco {
+        int proximo;
+        int fim;
+        int epoca = -1;
+    }
+
+    private final int inicial;
+    // (epoca << 32) | marca. A epoca so muda em reiniciar(), e um bloco de outra epoca e descartado.
+    private final AtomicLong estado;
+    // Ids abaixo do piso ja foram usados (entidades carregadas): os blocos antigos pulam para ele.
+    private final AtomicInteger piso;
+    private final Bloco[] canais = new Bloco[CANAIS];
+
+    public IdSequence(int inicial) {
+        this.inicial = inicial;
+        this.estado = new AtomicLong(inicial & 0xFFFFFFFFL);
+        this.piso = new AtomicInteger(inicial);
+        for (int i = 0; i < CANAIS; i++) {
+            canais[i] = new Bloco();
+        }
+    }
+
+    public int proximo() {
+        return proximo(canal(Thread.currentThread().threadId()));
+    }
+
+    // Ids pedidos com a mesma chave saem em ordem crescente (os pedidos de uma empresa, por exemplo).
+    public int proximo(int chave) {
+        return proximo(canal(chave));
+    }
+
+    // Fim do ultimo bloco reservado.
+    public int marca() {
+        return (int) estado.get();
+    }
+
+    // Depois da carga: ids menores que minimo ja existem e nao podem ser entregues.
+    public void avancarPara(int minimo) {
+        estado.getAndUpdate(v -> (int) v >= minimo ? v : (v & 0xFFFFFFFF00000000L) | (minimo & 0xFFFFFFFFL));
+        piso.accumulateAndGet(minimo, Math::max);
+    }
+
+    // zerarSistema: a sequencia volta ao inicio e os blocos reservados deixam de valer.
+    public void reiniciar() {
+        estado.getAndUpdate(v -> ((v >>> 32) + 1) << 32 | (inicial & 0xFFFFFFFFL));
+        piso.set(inicial);
+    }
+
+    private int proximo(Bloco bloco) {
+        synchronized (bloco) {
+            int id = Math.max(bloco.proximo, piso.get());
+            if (bloco.epoca != (int) (estado.get() >>> 32) || id >= bloco.fim) {
+                long reservado = estado.getAndAdd(TAMANHO_BLOCO);
+                bloco.epoca = (int) (reservado >>> 32);
+                bloco.fim = (int) reservado + TAMANHO_BLOCO;
+                id = Math.max((int) reservado, piso.get());
+            }
+            bloco.proximo = id + 1;
+            return id;
+        }
+    }
+
+    private Bloco canal(long chave) {
+        long h = chave * 0x9E3779B97F4A7C15L;
+        return canais[(int) (h ^ h >>> 32) & (CANAIS - 1)];
+    }
+}
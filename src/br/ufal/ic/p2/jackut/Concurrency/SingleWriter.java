@@ -0,0 +1,117 @@
+package br.ufal.ic.p2.jackut.Concurrency;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+// Escritor unico (myfood.escritor.unico): as operacoes que alteram o Sistema entram numa fila limitada e uma
+// so thread as executa, em lotes do que tiver chegado. Depois de cada lote roda aoFimDoLote (o Sistema manda
+// o journal do lote inteiro para o disco de uma vez), e so entao quem pediu cada operacao recebe a resposta.
+// Com a fila cheia, quem chama espera. As consultas nao passam por aqui.
+public class SingleWriter {
+    public interface Operacao<T> {
+        T executar() throws Exception;
+    }
+
+    public interface Acao {
+        void executar() throws Exception;
+    }
+
+    private static final class Comando {
+        final Operacao<?> operacao;
+        final CompletableFuture<Object> resposta = new CompletableFuture<>();
+        Object valor;
+        Throwable erro;
+
+        Comando(Operacao<?> operacao) {
+            this.operacao = operacao;
+        }
+    }
+
+    private final ArrayBlockingQueue<Comando> fila;
+    private final int lote;
+    private final Runnable aoFimDoLote;
+    private final Thread escritor;
+
+    public SingleWriter(int capacidade, int lote, Runnable aoFimDoLote) {
+        this.fila = new ArrayBlockingQueue<>(Math.max(capacidade, 1));
+        this.lote = Math.max(lote, 1);
+        this.aoFimDoLote = aoFimDoLote;
+        this.escritor = Thread.ofPlatform().name("myfood-escritor").daemon().start(this::rodar);
+    }
+
+    // Roda a operacao na thread do escritor e espera o lote dela terminar. As excecoes chegam a quem chamou
+    // do jeito que a operacao lancou, inclusive as checadas. Chamada de dentro do escritor roda direto.
+    @SuppressWarnings("unchecked")
+    public <T> T executar(Operacao<T> operacao) {
+        if (Thread.currentThread() == escritor) {
+            return executarAqui(operacao);
+        }
+        Comando comando = new Comando(operacao);
+        try {
+            fila.put(comando);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrompido esperando a fila do escritor", e);
+        }
+        try {
+            return (T) comando.resposta.join();
+        } catch (CompletionException e) {
+            throw SingleWriter.<RuntimeException>relancar(e.getCause());
+        }
+    }
+
+    // Sem o escritor unico: a mesma chamada, na thread atual.
+    public static <T> T executarAqui(Operacao<T> operacao) {
+        try {
+            return operacao.executar();
+        } catch (Exception e) {
+            throw SingleWriter.<RuntimeException>relancar(e);
+        }
+    }
+
+    private void rodar() {
+        List<Comando> comandos = new ArrayList<>(lote);
+        while (true) {
+            try {
+                comandos.add(fila.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            fila.drainTo(comandos, lote - 1);
+            for (Comando comando : comandos) {
+                try {
+                    comando.valor = comando.operacao.executar();
+                } catch (Throwable t) {
+                    comando.erro = t;
+                }
+            }
+            // Se o lote nao ficou duravel (Journal.sincronizar lanca), nenhuma operacao dele e confirmada:
+            // quem ja tinha falhado recebe o proprio erro, os demais recebem o da gravacao.
+            RuntimeException naoDuravel = null;
+            try {
+                aoFimDoLote.run();
+            } catch (RuntimeException e) {
+                naoDuravel = e;
+            }
+            for (Comando comando : comandos) {
+                if (comando.erro == null && naoDuravel != null) {
+                    comando.resposta.completeExceptionally(naoDuravel);
+                } else if (comando.erro != null) {
+                    comando.resposta.completeExceptionally(comando.erro);
+                } else {
+                    comando.resposta.complete(comando.valor);
+                }
+            }
+            comandos.clear();
+        }
+    }
+
+    // Relanca sem embrulhar: o compilador aceita a excecao checada como se fosse E.
+    @SuppressWarnings("unchecked")
+    private static <E extends Throwable> E relancar(Throwable erro) throws E {
+        throw (E) erro;
+    }
+}
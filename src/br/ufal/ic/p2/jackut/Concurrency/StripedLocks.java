@@ -0,0 +1,77 @@
+package br.ufal.ic.p2.jackut.Concurrency;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Travas das operacoes do Sistema. A trava de leitura/escrita separa as operacoes comuns (leitura)
+// das que trocam o estado inteiro ou os cadastros (escrita). Sobre a leitura, as operacoes do cliente
+// e do dono sobre um pedido pegam a faixa da empresa do pedido; pedidos de empresas em faixas
+// diferentes andam em paralelo. As dos entregadores nao pegam faixa: disputam o pedido e o proprio
+// entregador por compare-and-set (Pedido.avancar e Entregador.ocupar).
+public class StripedLocks {
+    // Uma secao aberta; close() solta as travas na ordem inversa.
+    public final class Secao implements AutoCloseable {
+        private final Lock estado;
+        private final Lock empresa;
+
+        private Secao(Lock estado, Lock empresa) {
+            this.estado = estado;
+            this.empresa = empresa;
+            estado.lock();
+            if (empresa != null) {
+                empresa.lock();
+            }
+        }
+
+        @Override
+        public void close() {
+            if (empresa != null) {
+                empresa.unlock();
+            }
+            estado.unlock();
+            if (!travado.isWriteLockedByCurrentThread() && travado.getReadHoldCount() == 0) {
+                aoSair.run();
+            }
+        }
+    }
+
+    private final ReentrantReadWriteLock travado = new ReentrantReadWriteLock();
+    private final ReentrantLock[] empresas;
+    private final Runnable aoSair;
+
+    // faixas: quantidade de travas de empresa (arredondada para potencia de 2).
+    // aoSair: roda depois que a ultima secao da thread foi fechada, ja sem nenhuma trava.
+    public StripedLocks(int faixas, Runnable aoSair) {
+        int quantidade = Integer.highestOneBit(Math.max(faixas, 1) * 2 - 1);
+        this.empresas = new ReentrantLock[quantidade];
+        for (int i = 0; i < quantidade; i++) {
+            empresas[i] = new ReentrantLock();
+        }
+        this.aoSair = aoSair;
+    }
+
+    // Sozinha no sistema: zerar, salvar e as alteracoes de cadastro.
+    public Secao exclusiva() {
+        return new Secao(travado.writeLock(), null);
+    }
+
+    // Consultas que nao passam pelos pedidos de uma empresa.
+    public Secao leitura() {
+        return new Secao(travado.readLock(), null);
+    }
+
+    public Secao empresa(int empresa) {
+        return new Secao(travado.readLock(), faixa(empresas, empresa));
+    }
+
+    // Se a thread atual esta numa secao exclusiva.
+    public boolean exclusivo() {
+        return travado.isWriteLockedByCurrentThread();
+    }
+
+    private static ReentrantLock faixa(ReentrantLock[] travas, int id) {
+        int h = id * 0x9E3779B9; // como no IntMap: ids sequenciais caem em faixas diferentes
+        return travas[(h ^ h >>> 16) & (travas.length - 1)];
+    }
+}
@@ -0,0 +1,43 @@
+package br.ufal.ic.p2.jackut;
+
+// Opcoes de execucao lidas das propriedades da JVM, por exemplo: java -Dmyfood.journal=false ...
+public class Configuracao {
+    // Journal de mutacoes (myfood.journal) reaplicado sobre o ultimo snapshot na inicializacao.
+    public static final boolean JOURNAL = Boolean.parseBoolean(System.getProperty("myfood.journal", "true"));
+    // Tempo maximo (ms) que um registro espera no buffer antes do fsync; e a janela de perda numa queda.
+    public static final long JOURNAL_INTERVALO = Long.getLong("myfood.journal.intervalo", 10);
+    // Se verdadeiro, cada operacao so retorna depois que o seu registro estiver no disco.
+    public static final boolean JOURNAL_SINCRONO = Boolean.getBoolean("myfood.journal.sincrono");
+    // Modo delta: colecoes com poucas alteracoes nao sao reescritas em encerrarSistema, ficam so no journal.
+    public static final boolean DELTA = Boolean.getBoolean("myfood.delta");
+    // Fracao de entidades alteradas a partir da qual a colecao e reescrita mesmo no modo delta.
+    public static final double DELTA_LIMITE = Double.parseDouble(System.getProperty("myfood.delta.limite", "0.1"));
+    // Snapshot binario (myfood.snapshot) no lugar dos arquivos XML; sem o arquivo, a carga inicial vem do XML.
+    public static final boolean SNAPSHOT_BINARIO = Boolean.getBoolean("myfood.snapshot.binario");
+    // Imprime em System.err quanto tempo cada fase da inicializacao levou.
+    public static final boolean TEMPOS = Boolean.getBoolean("myfood.tempos");
+    // Checkpoints em segundo plano: as mutacoes nao esperam a gravacao dos arquivos.
+    public static final boolean CHECKPOINT = Boolean.getBoolean("myfood.checkpoint");
+    // Quantidade de mutacoes que dispara um checkpoint.
+    public static final int CHECKPOINT_ALTERACOES = Integer.getInteger("myfood.checkpoint.alteracoes", 1000);
+    // Intervalo maximo (ms) entre checkpoints, verificado a cada mutacao.
+    public static final long CHECKPOINT_INTERVALO = Long.getLong("myfood.checkpoint.intervalo", 30000);
+    // Tiering: pedidos entregues e as suas entregas saem do heap para segmentos em myfood.historico/.
+    public static final boolean TIERING = Boolean.getBoolean("myfood.tiering");
+    // Quantos pedidos (e quantas entregas) arquivados ficam no cache em memoria.
+    public static final int TIERING_CACHE = Integer.getInteger("myfood.tiering.cache", 1000);
+    // Catalogo dividido: um arquivo por empresa em myfood.empresas/ no lugar de empresas.xml.
+    public static final boolean CATALOGO_DIVIDIDO = Boolean.getBoolean("myfood.catalogos.divididos");
+    // Pedidos e entregas num log de segmentos em myfood.log/ no lugar de pedidos.xml e entregas.xml (sem efeito com o snapshot binario).
+    public static final boolean LOG_PEDIDOS = Boolean.getBoolean("myfood.pedidos.log");
+    // Quantidade de faixas de travas por empresa para as requisicoes concorrentes.
+    public static final int FAIXAS = Integer.getInteger("myfood.faixas", 64);
+    // Escritor unico: as operacoes que alteram o sistema rodam numa so thread, em lotes (ver SingleWriter).
+    public static final boolean ESCRITOR_UNICO = Boolean.getBoolean("myfood.escritor.unico");
+    // Capacidade da fila do escritor unico; com ela cheia, quem chama espera.
+    public static final int ESCRITOR_FILA = Integer.getInteger("myfood.escritor.fila", 1024);
+    // Maximo de operacoes por lote, e por sincronizacao do journal, no escritor unico.
+    public static final int ESCRITOR_LOTE = Integer.getInteger("myfood.escritor.lote", 256);
+    // Porta do FacadeServer (sempre em localhost).
+    public static final int PORTA = Integer.getInteger("myfood.porta", 7070);
+}
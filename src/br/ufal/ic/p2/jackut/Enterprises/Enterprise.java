@@ -1,12 +1,15 @@
 package br.ufal.ic.p2.jackut.Enterprises;
 
+import br.ufal.ic.p2.jackut.Concurrency.IdSequence;
 import br.ufal.ic.p2.jackut.Produto;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
-public class Enterprise {
-    private static int contador = 0;
+public class Enterprise implements Cloneable {
+    public static final IdSequence IDS = new IdSequence(0);
 
     public int id;
     public int idDono;
@@ -14,9 +17,12 @@ public class Enterprise {
     public String endereco;
     public List<Produto> produtos;
     public List<Integer> entregadores;
+    // Indice nome -> produto (o primeiro da lista com cada nome), montado na primeira busca.
+    // Consultas concorrentes podem montar cada uma o seu; o campo so recebe o mapa pronto.
+    private volatile Map<String, Produto> produtosPorNome;
 
     public Enterprise(int idDono, String nome, String endereco) {
-        this.id = contador++;
+        this.id = IDS.proximo();
         this.idDono = idDono;
         this.nome = nome;
         this.endereco = endereco;
@@ -27,4 +33,46 @@ public class Enterprise {
     public String isWhatType() {
         return "Empresa";
     }
+
+    public Produto buscarProduto(String nome) {
+        Map<String, Produto> indice = produtosPorNome;
+        if (indice == null) {
+            indice = new HashMap<>(produtos.size() * 2);
+            for (Produto produto : produtos) {
+                indice.putIfAbsent(produto.nome, produto);
+            }
+            produtosPorNome = indice;
+        }
+        return indice.get(nome);
+    }
+
+    public void adicionarProduto(Produto produto) {
+        produtos.add(produto);
+        Map<String, Produto> indice = produtosPorNome;
+        if (indice != null) {
+            indice.putIfAbsent(produto.nome, produto);
+        }
+    }
+
+    // Depois de renomear um produto: o indice e refeito na proxima busca.
+    public void produtoRenomeado() {
+        produtosPorNome = null;
+    }
+
+    // Copia sem passar pelo construtor, para nao consumir um id novo.
+    public Enterprise copia() {
+        Enterprise copia;
+        try {
+            copia = (Enterprise) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+        copia.produtos = new ArrayList<>(produtos.size());
+        for (Produto produto : produtos) {
+            copia.produtos.add(produto.copia());
+        }
+        copia.entregadores = new ArrayList<>(entregadores);
+        copia.produtosPorNome = null;
+        return copia;
+    }
 }
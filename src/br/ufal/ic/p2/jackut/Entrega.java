@@ -1,9 +1,11 @@
 package br.ufal.ic.p2.jackut;
 
+import br.ufal.ic.p2.jackut.Concurrency.IdSequence;
+
 import java.util.ArrayList;
 
-public class Entrega {
-    private static int contador = 0;
+public class Entrega implements Cloneable {
+    public static final IdSequence IDS = new IdSequence(0);
     public int id;
     public String cliente;
     public String empresa;
@@ -13,7 +15,7 @@ public class Entrega {
     public ArrayList<String> produtos;
 
     public Entrega(String cliente, String empresa, Integer pedido, Integer entregador, String destino, ArrayList<String> produtos) {
-        this.id = contador++;
+        this.id = IDS.proximo();
         this.cliente = cliente;
         this.empresa = empresa;
         this.pedido = pedido;
@@ -21,4 +23,18 @@ public class Entrega {
         this.destino = destino;
         this.produtos = produtos;
     }
+
+    // Copia sem passar pelo construtor, para nao consumir um id novo.
+    public Entrega copia() {
+        Entrega copia;
+        try {
+            copia = (Entrega) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+        if (produtos != null) {
+            copia.produtos = new ArrayList<>(produtos);
+        }
+        return copia;
+    }
 }
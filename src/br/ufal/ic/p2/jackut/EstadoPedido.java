@@ -0,0 +1,35 @@
+package br.ufal.ic.p2.jackut;
+
+// Estados de um pedido, com o texto que vai para os arquivos e para getPedidos. Um pedido so anda para
+// frente, um passo por vez: aberto -> preparando -> pronto -> entregando -> entregue.
+public enum EstadoPedido {
+    ABERTO("aberto"),
+    PREPARANDO("preparando"),
+    PRONTO("pronto"),
+    ENTREGANDO("entregando"),
+    ENTREGUE("entregue");
+
+    public final String texto;
+
+    EstadoPedido(String texto) {
+        this.texto = texto;
+    }
+
+    public boolean podeIrPara(EstadoPedido proximo) {
+        return proximo.ordinal() == ordinal() + 1;
+    }
+
+    public static EstadoPedido de(String texto) {
+        for (EstadoPedido estado : values()) {
+            if (estado.texto.equals(texto)) {
+                return estado;
+            }
+        }
+        throw new IllegalArgumentException("Estado de pedido desconhecido: " + texto);
+    }
+
+    @Override
+    public String toString() {
+        return texto;
+    }
+}
@@ -10,14 +10,15 @@ import br.ufal.ic.p2.jackut.Users.User;
 
 
 public class Facade {
+    // As operacoes que alteram o sistema passam por sistema.escrever (modo escritor unico, ver SingleWriter).
     private Sistema sistema = Sistema.getInstance();
 
     public void encerrarSistema() {
-        sistema.encerrarSistema();
+        sistema.escrever(() -> sistema.encerrarSistema());
     }
 
     public void zerarSistema() {
-        sistema.zerarSistema();
+        sistema.escrever(() -> sistema.zerarSistema());
     }
 
     public User getUser(int id) throws UserNotRegistered {
@@ -37,11 +38,11 @@ public class Facade {
     }
 
     public void criarUsuario(String nome, String email, String senha, String endereco) throws EmailAlreadyExist, InvalidName, InvalidEmail, InvalidAddress, InvalidPassword {
-        sistema.criarUsuario(nome, email, senha, endereco);
+        sistema.escrever(() -> sistema.criarUsuario(nome, email, senha, endereco));
     }
 
     public void criarUsuario(String nome, String email, String senha, String endereco, String cpf) throws EmailAlreadyExist, InvalidName, InvalidEmail, InvalidAddress, InvalidPassword {
-        sistema.criarUsuario(nome, email, senha, endereco, cpf);
+        sistema.escrever(() -> sistema.criarUsuario(nome, email, senha, endereco, cpf));
     }
 
     // Other methods from Sistema class
@@ -52,7 +53,7 @@ public class Facade {
 
     // Restaurante
     public int criarEmpresa(String tipoEmpresa, int dono, String nome, String endereco, String tipoCozinha) throws NameAlreadyExist, AddresAlreadyExist, NameAndAddresAlreadyExist, UserCantCreate {
-        return sistema.criarEmpresa(tipoEmpresa, dono, nome, endereco, tipoCozinha);
+        return sistema.escrever(() -> sistema.criarEmpresa(tipoEmpresa, dono, nome, endereco, tipoCozinha));
     }
 
     public String getEmpresasDoUsuario(int idDono) throws UserCantCreate {
@@ -68,11 +69,11 @@ public class Facade {
     }
 
     public int criarProduto(int empresa, String nome, float valor, String categoria) throws ProductNameAtEnterprise, InvalidName, InvalidPrice, WrongCategory, EnterpriseNotRegistered {
-        return sistema.criarProduto(empresa, nome, valor, categoria);
+        return sistema.escrever(() -> sistema.criarProduto(empresa, nome, valor, categoria));
     }
 
     public void editarProduto(int produto, String nome, float valor, String categoria) throws InvalidName, InvalidPrice, WrongCategory, ProductNotRegistered, RequestNotFound2 {
-        sistema.editarProduto(produto, nome, valor, categoria);
+        sistema.escrever(() -> sistema.editarProduto(produto, nome, valor, categoria));
     }
 
     public String getProduto(String nome, int empresa, String atributo) throws ProductNotFound, AtributeDontExist, RestauranteNotFound {
@@ -84,7 +85,7 @@ public class Facade {
     }
 
     public int criarPedido(int cliente, int empresa) throws DonoCannotCreateOrder, CannotHaveMoreThanOneOrderSameEnterprise {
-        return sistema.criarPedido(cliente, empresa);
+        return sistema.escrever(() -> sistema.criarPedido(cliente, empresa));
     }
 
     public int getNumeroPedido(int cliente, int empresa, int indice) throws RequestNotFound {
@@ -92,7 +93,7 @@ public class Facade {
     }
 
     public void adicionarProduto(int numero, int produto) throws NoOpenedOrder, ProductDoesntBelongEnterprise, CannotAddProductOrderClosed, RestauranteNotFound, PedidoNotFound {
-        sistema.adicionarProduto(numero, produto);
+        sistema.escrever(() -> sistema.adicionarProduto(numero, produto));
     }
 
     public String getPedidos(int numero, String atributo) throws InvalidAttribute, AtributeDontExist, OrderNotFound, PedidoNotFound {
@@ -100,40 +101,40 @@ public class Facade {
     }
 
     public void fecharPedido(int numero) throws OrderNotFound {
-        sistema.fecharPedido(numero);
+        sistema.escrever(() -> sistema.fecharPedido(numero));
     }
 
     public void removerPedido(int numero) throws PedidoNotFound {
-        sistema.removerPedido(numero);
+        sistema.escrever(() -> sistema.removerPedido(numero));
     }
 
     public void removerProduto(int pedido, String produto) throws OrderNotFound, InvalidProduct, ProductNotFound, CannotRemoveProductOrderClosed, PedidoNotFound {
-        sistema.removerProduto(pedido, produto);
+        sistema.escrever(() -> sistema.removerProduto(pedido, produto));
     }
 
     // Mercado
     public int criarEmpresa(String tipoEmpresa, int dono, String nome, String endereco, String abre, String fecha, String tipoMercado) throws NameAlreadyExist, AddresAlreadyExist, NameAndAddresAlreadyExist, UserCantCreate, InvalidTimeFormat, InvalidTime, EnterpriseNotAMarket, InvalidMarketType, InvalidEnterpriseAddress, InvalidName, InvalidEnterpriseType {
-        return sistema.criarEmpresa(tipoEmpresa, dono, nome, endereco, abre, fecha, tipoMercado);
+        return sistema.escrever(() -> sistema.criarEmpresa(tipoEmpresa, dono, nome, endereco, abre, fecha, tipoMercado));
     }
 
     public void alterarFuncionamento(int mercado, String abre, String fecha) throws EnterpriseNotRegistered, InvalidTimeFormat, InvalidTime, InvalidMarket {
-        sistema.alterarFuncionamento(mercado, abre, fecha);
+        sistema.escrever(() -> sistema.alterarFuncionamento(mercado, abre, fecha));
     }
 
     // Farmcia
 
     public int criarEmpresa(String tipoEmpresa, int dono, String nome, String endereco, Boolean aberto24Horas, int numeroFuncionarios) throws NameAndAddresAlreadyExist, NameAlreadyExist, UserCantCreate, InvalidName, InvalidEnterpriseAddress, InvalidEnterpriseType {
-        return sistema.criarEmpresa(tipoEmpresa, dono, nome, endereco, aberto24Horas, numeroFuncionarios);
+        return sistema.escrever(() -> sistema.criarEmpresa(tipoEmpresa, dono, nome, endereco, aberto24Horas, numeroFuncionarios));
     }
 
         // Entregador
 
     public void criarUsuario(String nome, String email, String senha, String endereco, String veiculo, String placa) throws EmailAlreadyExist, InvalidName, PlacaAlreadyExist, InvalidVehicle, InvalidPlaque, InvalidEmail, InvalidAddress, InvalidPassword {
-        sistema.criarUsuario(nome, email, senha, endereco, veiculo, placa);
+        sistema.escrever(() -> sistema.criarUsuario(nome, email, senha, endereco, veiculo, placa));
     }
 
     public void cadastrarEntregador(Integer empresaId, Integer entregadorId) throws UserNotRegistered, RestauranteNotFound, UserNotDelivery {
-        sistema.cadastrarEntregador(empresaId, entregadorId);
+        sistema.escrever(() -> sistema.cadastrarEntregador(empresaId, entregadorId));
     }
 
     public String getEntregadores(Integer empresaId) throws RestauranteNotFound {
@@ -145,7 +146,7 @@ public class Facade {
     }
 
     public void liberarPedido(Integer numero) throws PedidoNotFound, RequestAlreadyDone, RequestNotPreparing {
-        sistema.liberarPedido(numero);
+        sistema.escrever(() -> sistema.liberarPedido(numero));
     }
 
     public Integer obterPedido(Integer entregadorId) throws PedidoNotFound, UserNotRegistered, NoEnterprises, UserNotDelivery {
@@ -153,7 +154,7 @@ public class Facade {
     }
 
     public Integer criarEntrega(Integer pedidoId, Integer entregadorId, String destino) throws PedidoNotFound, PedidoAlreadySent, UserNotRegistered, UserNotDelivery, RestauranteNotFound, BusyDelivery, InvalidDelivery, PedidoNotReady {
-        return sistema.criarEntrega(pedidoId, entregadorId, destino);
+        return sistema.escrever(() -> sistema.criarEntrega(pedidoId, entregadorId, destino));
     }
 
     public String getEntrega(Integer id, String atributo) throws EntregaNotFound, InvalidAttribute, AttributeNotFound {
@@ -165,7 +166,7 @@ public class Facade {
     }
 
     public void entregar(Integer entregaId) throws EntregaNotFound {
-        sistema.entregar(entregaId);
+        sistema.escrever(() -> sistema.entregar(entregaId));
     }
 
 }
@@ -0,0 +1,55 @@
+package br.ufal.ic.p2.jackut.Indexes;
+
+import br.ufal.ic.p2.jackut.Enterprises.Enterprise;
+import br.ufal.ic.p2.jackut.Users.Entregador;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+// Vinculos empresa <-> entregador nos dois sentidos, com as proprias entidades e sem repeticao.
+// Cada lado guarda a ordem de cadastro da sua lista persistida (Enterprise.entregadores e
+// Entregador.empresas), que e a ordem em que getEntregadores e getEmpresas devolvem.
+public class CourierRoster {
+    private final IntMap<LinkedHashSet<Entregador>> entregadoresDaEmpresa = new IntMap<>();
+    private final IntMap<LinkedHashSet<Enterprise>> empresasDoEntregador = new IntMap<>();
+
+    // Devolve false se o entregador ja estava na empresa.
+    public boolean vincular(Enterprise empresa, Entregador entregador) {
+        boolean novo = adicionarEntregador(empresa.id, entregador);
+        adicionarEmpresa(entregador.id, empresa);
+        return novo;
+    }
+
+    public boolean adicionarEntregador(int empresa, Entregador entregador) {
+        LinkedHashSet<Entregador> daEmpresa = entregadoresDaEmpresa.buscar(empresa);
+        if (daEmpresa == null) {
+            daEmpresa = new LinkedHashSet<>();
+            entregadoresDaEmpresa.colocar(empresa, daEmpresa);
+        }
+        return daEmpresa.add(entregador);
+    }
+
+    public boolean adicionarEmpresa(int entregador, Enterprise empresa) {
+        LinkedHashSet<Enterprise> doEntregador = empresasDoEntregador.buscar(entregador);
+        if (doEntregador == null) {
+            doEntregador = new LinkedHashSet<>();
+            empresasDoEntregador.colocar(entregador, doEntregador);
+        }
+        return doEntregador.add(empresa);
+    }
+
+    public Set<Entregador> entregadores(int empresa) {
+        Set<Entregador> daEmpresa = entregadoresDaEmpresa.buscar(empresa);
+        return daEmpresa != null ? daEmpresa : Set.of();
+    }
+
+    public Set<Enterprise> empresas(int entregador) {
+        Set<Enterprise> doEntregador = empresasDoEntregador.buscar(entregador);
+        return doEntregador != null ? doEntregador : Set.of();
+    }
+
+    public void limpar() {
+        entregadoresDaEmpresa.limpar();
+        empresasDoEntregador.limpar();
+    }
+}
@@ -0,0 +1,78 @@
+package br.ufal.ic.p2.jackut.Indexes;
+
+import br.ufal.ic.p2.jackut.EstadoPedido;
+import br.ufal.ic.p2.jackut.Pedido;
+
+import java.util.List;
+import java.util.TreeMap;
+import java.util.function.IntPredicate;
+
+// Filas de despacho: os pedidos "pronto" de cada empresa, na ordem em que estao na lista de pedidos.
+// Cada pedido recebe uma posicao crescente quando entra na lista (fecharPedido o leva para o fim),
+// e a fila de cada empresa e ordenada por essa posicao; assim o primeiro de varias filas e o mesmo
+// pedido que uma busca pela lista encontraria primeiro.
+public class DispatchQueues {
+    private final IntMap<TreeMap<Long, Pedido>> prontos = new IntMap<>();
+    private final IntMap<Long> posicoes = new IntMap<>(); // numero -> posicao relativa na lista
+    private long proximaPosicao;
+
+    // O pedido entrou no fim da lista de pedidos.
+    public void adicionar(Pedido pedido) {
+        posicoes.colocar(pedido.numero, proximaPosicao++);
+        atualizar(pedido);
+    }
+
+    public void remover(Pedido pedido) {
+        tirarDaFila(pedido);
+        posicoes.remover(pedido.numero);
+    }
+
+    // Depois de uma mudanca de estado: o pedido so fica na fila da empresa enquanto estiver "pronto".
+    public void atualizar(Pedido pedido) {
+        Long posicao = posicoes.buscar(pedido.numero);
+        if (posicao == null) {
+            return;
+        }
+        if (pedido.estado != EstadoPedido.PRONTO) {
+            tirarDaFila(pedido);
+            return;
+        }
+        TreeMap<Long, Pedido> fila = prontos.buscar(pedido.empresa);
+        if (fila == null) {
+            fila = new TreeMap<>();
+            prontos.colocar(pedido.empresa, fila);
+        }
+        fila.put(posicao, pedido);
+    }
+
+    // O primeiro pedido pronto entre as filas das empresas aceitas pelo filtro, ou null.
+    public Pedido proximo(List<Integer> empresas, IntPredicate filtro) {
+        Pedido escolhido = null;
+        long menor = Long.MAX_VALUE;
+        for (int empresa : empresas) {
+            if (!filtro.test(empresa)) {
+                continue;
+            }
+            TreeMap<Long, Pedido> fila = prontos.buscar(empresa);
+            if (fila != null && !fila.isEmpty() && fila.firstKey() < menor) {
+                menor = fila.firstKey();
+                escolhido = fila.firstEntry().getValue();
+            }
+        }
+        return escolhido;
+    }
+
+    public void limpar() {
+        prontos.limpar();
+        posicoes.limpar();
+        proximaPosicao = 0;
+    }
+
+    private void tirarDaFila(Pedido pedido) {
+        Long posicao = posicoes.buscar(pedido.numero);
+        TreeMap<Long, Pedido> fila = prontos.buscar(pedido.empresa);
+        if (posicao != null && fila != null) {
+            fila.remove(posicao);
+        }
+    }
+}
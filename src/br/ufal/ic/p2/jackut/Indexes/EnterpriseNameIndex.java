@@ -0,0 +1,39 @@
+package br.ufal.ic.p2.jackut.Indexes;
+
+import java.util.*;
+
+// Indice das empresas por nome: os ids com cada nome, na ordem de cadastro, e para as validacoes
+// de criarEmpresa os donos e os enderecos ja usados com o nome.
+public class EnterpriseNameIndex {
+    private final Map<String, List<Integer>> idsPorNome = new HashMap<>();
+    private final Map<String, Set<Integer>> donosPorNome = new HashMap<>();
+    private final Map<String, Set<String>> enderecosPorNome = new HashMap<>();
+
+    public void adicionar(int id, String nome, String endereco, int dono) {
+        idsPorNome.computeIfAbsent(nome, k -> new ArrayList<>()).add(id);
+        donosPorNome.computeIfAbsent(nome, k -> new HashSet<>()).add(dono);
+        enderecosPorNome.computeIfAbsent(nome, k -> new HashSet<>()).add(endereco);
+    }
+
+    // Ids das empresas com o nome, na ordem da lista de empresas.
+    public List<Integer> ids(String nome) {
+        return idsPorNome.getOrDefault(nome, List.of());
+    }
+
+    // Se alguma empresa com o nome pertence a um dono diferente.
+    public boolean usadoPorOutroDono(String nome, int dono) {
+        Set<Integer> donos = donosPorNome.get(nome);
+        return donos != null && (donos.size() > 1 || !donos.contains(dono));
+    }
+
+    public boolean contem(String nome, String endereco) {
+        Set<String> enderecos = enderecosPorNome.get(nome);
+        return enderecos != null && enderecos.contains(endereco);
+    }
+
+    public void limpar() {
+        idsPorNome.clear();
+        donosPorNome.clear();
+        enderecosPorNome.clear();
+    }
+}
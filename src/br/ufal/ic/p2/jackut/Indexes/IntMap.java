@@ -0,0 +1,120 @@
+package br.ufal.ic.p2.jackut.Indexes;
+
+import java.util.Arrays;
+
+// Mapa int -> valor com enderecamento aberto e sondagem linear. As chaves ficam num int[] (sem Integer
+// nem nos de entrada), entao buscar nao aloca nada. Uma posicao vazia e a que tem valor null,
+// e a remocao desloca os seguintes para tras em vez de deixar marcadores de apagado.
+public class IntMap<V> {
+    private int[] chaves;
+    private Object[] valores;
+    private int mascara;
+    private int tamanho;
+
+    public IntMap() {
+        this(16);
+    }
+
+    public IntMap(int capacidadeInicial) {
+        int capacidade = Integer.highestOneBit(Math.max(capacidadeInicial, 1) * 4 - 1);
+        chaves = new int[capacidade];
+        valores = new Object[capacidade];
+        mascara = capacidade - 1;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V buscar(int chave) {
+        for (int i = posicaoIdeal(chave); valores[i] != null; i = (i + 1) & mascara) {
+            if (chaves[i] == chave) {
+                return (V) valores[i];
+            }
+        }
+        return null;
+    }
+
+    public boolean contem(int chave) {
+        return buscar(chave) != null;
+    }
+
+    // Devolve o valor anterior da chave, ou null.
+    @SuppressWarnings("unchecked")
+    public V colocar(int chave, V valor) {
+        int i = posicaoIdeal(chave);
+        for (; valores[i] != null; i = (i + 1) & mascara) {
+            if (chaves[i] == chave) {
+                V antigo = (V) valores[i];
+                valores[i] = valor;
+                return antigo;
+            }
+        }
+        chaves[i] = chave;
+        valores[i] = valor;
+        if (++tamanho * 2 > valores.length) {
+            redimensionar(valores.length * 2);
+        }
+        return null;
+    }
+
+    // So coloca se a chave ainda nao existe (o primeiro de ids repetidos ganha, como no findFirst das listas).
+    public V colocarSeAusente(int chave, V valor) {
+        V atual = buscar(chave);
+        return atual != null ? atual : colocar(chave, valor);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remover(int chave) {
+        int i = posicaoIdeal(chave);
+        while (valores[i] != null && chaves[i] != chave) {
+            i = (i + 1) & mascara;
+        }
+        if (valores[i] == null) {
+            return null;
+        }
+        V antigo = (V) valores[i];
+
+        // Traz para o buraco cada entrada seguinte do mesmo grupo que nao ficaria antes da sua posicao ideal.
+        int vazio = i;
+        for (int j = (i + 1) & mascara; valores[j] != null; j = (j + 1) & mascara) {
+            if (((j - posicaoIdeal(chaves[j])) & mascara) >= ((j - vazio) & mascara)) {
+                chaves[vazio] = chaves[j];
+                valores[vazio] = valores[j];
+                vazio = j;
+            }
+        }
+        valores[vazio] = null;
+        tamanho--;
+        return antigo;
+    }
+
+    public int tamanho() {
+        return tamanho;
+    }
+
+    public void limpar() {
+        Arrays.fill(valores, null);
+        tamanho = 0;
+    }
+
+    private int posicaoIdeal(int chave) {
+        int h = chave * 0x9E3779B9; // ids sequenciais ficam espalhados pela tabela
+        return (h ^ h >>> 16) & mascara;
+    }
+
+    private void redimensionar(int capacidade) {
+        int[] chavesAntigas = chaves;
+        Object[] valoresAntigos = valores;
+        chaves = new int[capacidade];
+        valores = new Object[capacidade];
+        mascara = capacidade - 1;
+        for (int i = 0; i < valoresAntigos.length; i++) {
+            if (valoresAntigos[i] != null) {
+                int j = posicaoIdeal(chavesAntigas[i]);
+                while (valores[j] != null) {
+                    j = (j + 1) & mascara;
+                }
+                chaves[j] = chavesAntigas[i];
+                valores[j] = valoresAntigos[i];
+            }
+        }
+    }
+}
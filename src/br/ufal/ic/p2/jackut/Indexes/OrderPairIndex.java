@@ -0,0 +1,60 @@
+package br.ufal.ic.p2.jackut.Indexes;
+
+import br.ufal.ic.p2.jackut.EstadoPedido;
+import br.ufal.ic.p2.jackut.Pedido;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Pedidos da lista quente por par (cliente, empresa), na mesma ordem relativa da lista de pedidos,
+// e o pedido "aberto" de cada par. Um pedido nunca volta a ficar aberto, entao o aberto so e
+// procurado de novo quando o atual sai do indice.
+public class OrderPairIndex {
+    private final Map<Long, List<Pedido>> pedidosPorPar = new HashMap<>();
+    private final Map<Long, Pedido> abertos = new HashMap<>();
+
+    // O pedido entra no fim do seu par, como na lista de pedidos.
+    public void adicionar(Pedido pedido) {
+        long par = par(pedido.cliente, pedido.empresa);
+        pedidosPorPar.computeIfAbsent(par, k -> new ArrayList<>()).add(pedido);
+        if (pedido.estado == EstadoPedido.ABERTO) {
+            abertos.putIfAbsent(par, pedido);
+        }
+    }
+
+    public void remover(Pedido pedido) {
+        long par = par(pedido.cliente, pedido.empresa);
+        List<Pedido> doPar = pedidosPorPar.get(par);
+        if (doPar == null || !doPar.remove(pedido)) {
+            return;
+        }
+        if (abertos.get(par) == pedido) {
+            abertos.remove(par);
+            for (Pedido outro : doPar) {
+                if (outro.estado == EstadoPedido.ABERTO) {
+                    abertos.put(par, outro);
+                    break;
+                }
+            }
+        }
+    }
+
+    public List<Pedido> pedidos(int cliente, int empresa) {
+        return pedidosPorPar.getOrDefault(par(cliente, empresa), List.of());
+    }
+
+    public Pedido aberto(int cliente, int empresa) {
+        return abertos.get(par(cliente, empresa));
+    }
+
+    public void limpar() {
+        pedidosPorPar.clear();
+        abertos.clear();
+    }
+
+    private static long par(int cliente, int empresa) {
+        return ((long) cliente << 32) | (empresa & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,67 @@
+package br.ufal.ic.p2.jackut.Indexes;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.function.ToIntFunction;
+
+// Posicao de cada id numa lista, para reaplicar o journal sem varrer a lista a cada registro.
+// Removido vira um buraco (null) na lista ate concluir(), que tira todos numa passada so; ate la
+// a lista so deve ser mexida por aqui. Com ids repetidos vale o primeiro, como na busca linear.
+public class PositionIndex<T> {
+    private final List<T> lista;
+    private final ToIntFunction<T> id;
+    private final IntMap<Integer> posicoes;
+    private boolean buracos;
+
+    public PositionIndex(List<T> lista, ToIntFunction<T> id) {
+        this.lista = lista;
+        this.id = id;
+        this.posicoes = new IntMap<>(lista.size());
+        for (int i = 0; i < lista.size(); i++) {
+            posicoes.colocarSeAusente(id.applyAsInt(lista.get(i)), i);
+        }
+    }
+
+    public T buscar(int chave) {
+        Integer posicao = posicoes.buscar(chave);
+        return posicao != null ? lista.get(posicao) : null;
+    }
+
+    // Troca a entidade de mesmo id mantendo a posicao, ou adiciona no fim se ela ainda nao existe.
+    public void substituir(T novo) {
+        int chave = id.applyAsInt(novo);
+        Integer posicao = posicoes.buscar(chave);
+        if (posicao != null) {
+            lista.set(posicao, novo);
+        } else {
+            adicionar(chave, novo);
+        }
+    }
+
+    public void remover(int chave) {
+        Integer posicao = posicoes.remover(chave);
+        if (posicao != null) {
+            lista.set(posicao, null);
+            buracos = true;
+        }
+    }
+
+    // Tira a entidade de onde estiver e poe no fim.
+    public void moverParaOFim(T novo) {
+        int chave = id.applyAsInt(novo);
+        remover(chave);
+        adicionar(chave, novo);
+    }
+
+    public void concluir() {
+        if (buracos) {
+            lista.removeIf(Objects::isNull);
+            buracos = false;
+        }
+    }
+
+    private void adicionar(int chave, T novo) {
+        posicoes.colocar(chave, lista.size());
+        lista.add(novo);
+    }
+}
@@ -1,13 +1,30 @@
 package br.ufal.ic.p2.jackut;
 
+import br.ufal.ic.p2.jackut.Concurrency.IdSequence;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.ArrayList;
 
-public class Pedido {
-    private static int contador = 0;
+public class Pedido implements Cloneable {
+    // Numeros a partir de 1, do canal da empresa: os pedidos de um mesmo par (cliente, empresa) ficam em ordem
+    // de criacao, que e o que o historico usa para intercalar os arquivados.
+    public static final IdSequence NUMEROS = new IdSequence(1);
+    private static final VarHandle ESTADO;
+
+    static {
+        try {
+            ESTADO = MethodHandles.lookup().findVarHandle(Pedido.class, "estado", EstadoPedido.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     public int numero;
     public int cliente;
     public int empresa;
-    public String estado;
+    // Atribuido direto so na carga; depois disso muda apenas por avancar.
+    public volatile EstadoPedido estado;
     public ArrayList<Produto> produtos;
 
     public float valor() {
@@ -19,10 +36,34 @@ public class Pedido {
     }
     
     public Pedido(int cliente, int empresa) {
-        this.numero = ++contador;
+        this.numero = NUMEROS.proximo(empresa);
         this.cliente = cliente;
         this.empresa = empresa;
-        this.estado = "aberto";
+        this.estado = EstadoPedido.ABERTO;
         this.produtos = new ArrayList<>();
     }
+
+    // Troca de estado atomica: so acontece se o pedido ainda esta em de. Com varias threads tentando o mesmo
+    // passo (entregadores disputando um pedido pronto), exatamente uma recebe true.
+    public boolean avancar(EstadoPedido de, EstadoPedido para) {
+        if (!de.podeIrPara(para)) {
+            throw new IllegalArgumentException("Transicao invalida: " + de + " -> " + para);
+        }
+        return ESTADO.compareAndSet(this, de, para);
+    }
+
+    // Copia sem passar pelo construtor, para nao consumir um numero novo.
+    public Pedido copia() {
+        Pedido copia;
+        try {
+            copia = (Pedido) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+        copia.produtos = new ArrayList<>(produtos.size());
+        for (Produto produto : produtos) {
+            copia.produtos.add(produto.copia());
+        }
+        return copia;
+    }
 }
@@ -0,0 +1,49 @@
+package br.ufal.ic.p2.jackut.Persistence;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+// Writer que grava em <arquivo>.tmp e so substitui o arquivo de destino em concluir():
+// fsync do temporario seguido de rename atomico. Sem concluir(), close() apaga o temporario
+// e o arquivo anterior continua intacto.
+public class AtomicFileWriter extends BufferedWriter {
+    private final FileOutputStream saida;
+    private final File temporario;
+    private final File destino;
+    private boolean concluido;
+
+    private AtomicFileWriter(FileOutputStream saida, File temporario, File destino) {
+        super(new OutputStreamWriter(saida, StandardCharsets.UTF_8), 1 << 16);
+        this.saida = saida;
+        this.temporario = temporario;
+        this.destino = destino;
+    }
+
+    public static AtomicFileWriter abrir(String fileName) throws IOException {
+        File destino = new File(fileName);
+        File temporario = new File(fileName + ".tmp");
+        return new AtomicFileWriter(new FileOutputStream(temporario), temporario, destino);
+    }
+
+    public void concluir() throws IOException {
+        flush();
+        saida.getFD().sync();
+        super.close();
+        Files.move(temporario.toPath(), destino.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        concluido = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (concluido) {
+            return;
+        }
+        try {
+            super.close();
+        } finally {
+            temporario.delete();
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package br.ufal.ic.p2.jackut.Persistence;
+
+import br.ufal.ic.p2.jackut.Enterprises.Enterprise;
+import br.ufal.ic.p2.jackut.Entrega;
+import br.ufal.ic.p2.jackut.Pedido;
+import br.ufal.ic.p2.jackut.Produto;
+import br.ufal.ic.p2.jackut.Users.User;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Snapshot binario versionado de todo o Sistema, carregado por um arquivo mapeado em memoria.
+// Layout: [int MAGICO][int VERSAO][tabela de textos][usuarios][empresas][pedidos][entregas].
+// A tabela guarda cada texto repetido (tipos, categorias, nomes de produto...) uma unica vez e os
+// registros apontam para ela com um int. Cada secao e [int quantidade] seguida de registros
+// [int tamanho][dados]; ids sao int e precos sao float de largura fixa.
+public class BinarySnapshot {
+    private static final int MAGICO = 0x4D59464F; // "MYFO"
+    private static final int VERSAO = 1;
+
+    public static class Dados {
+        public List<User> users = new ArrayList<>();
+        public List<Enterprise> empresas = new ArrayList<>();
+        public List<Pedido> pedidos = new ArrayList<>();
+        public List<Entrega> entregas = new ArrayList<>();
+    }
+
+    private static class CodecComTabela extends EntityCodec {
+        private final Map<String, Integer> indices;
+        private final String[] textos;
+
+        CodecComTabela(Map<String, Integer> indices, String[] textos) {
+            this.indices = indices;
+            this.textos = textos;
+        }
+
+        @Override
+        protected void escreverTexto(DataOutput out, String texto) throws IOException {
+            if (texto == null) {
+                out.writeInt(-1);
+                return;
+            }
+            Integer indice = indices.get(texto);
+            if (indice == null) {
+                indice = indices.size();
+                indices.put(texto, indice);
+            }
+            out.writeInt(indice);
+        }
+
+        @Override
+        protected String lerTexto(DataInput in) throws IOException {
+            int indice = in.readInt();
+            return indice < 0 ? null : textos[indice];
+        }
+    }
+
+    // Grava num arquivo temporario e so entao troca o snapshot anterior, para nunca deixar um arquivo pela metade.
+    public static void salvar(File arquivo, List<User> users, List<Enterprise> empresas, List<Pedido> pedidos, List<Entrega> entregas) throws IOException {
+        Map<String, Integer> indices = new HashMap<>();
+        CodecComTabela codec = new CodecComTabela(indices, null);
+
+        // Primeira passada so monta a tabela de textos.
+        DataOutputStream descarte = new DataOutputStream(OutputStream.nullOutputStream());
+        escreverSecoes(descarte, codec, new RecordBuffer(), users, empresas, pedidos, entregas);
+
+        String[] textos = new String[indices.size()];
+        for (Map.Entry<String, Integer> entrada : indices.entrySet()) {
+            textos[entrada.getValue()] = entrada.getKey();
+        }
+
+        File temporario = new File(arquivo.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(temporario);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16))) {
+            out.writeInt(MAGICO);
+            out.writeInt(VERSAO);
+            out.writeInt(textos.length);
+            for (String texto : textos) {
+                byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            escreverSecoes(out, codec, new RecordBuffer(), users, empresas, pedidos, entregas);
+            out.flush();
+            fos.getFD().sync();
+        }
+        Files.move(temporario.toPath(), arquivo.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static Dados carregar(File arquivo) throws IOException {
+        Dados dados = new Dados();
+        try (FileChannel canal = FileChannel.open(arquivo.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer mapa = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+            ByteBufferInput in = new ByteBufferInput(mapa);
+
+            if (in.readInt() != MAGICO) {
+                throw new IOException("Arquivo nao e um snapshot do MyFood: " + arquivo);
+            }
+            int versao = in.readInt();
+            if (versao != VERSAO) {
+                throw new IOException("Versao de snapshot nao suportada: " + versao);
+            }
+
+            String[] textos = new String[in.readInt()];
+            for (int i = 0; i < textos.length; i++) {
+                int tamanho = in.readInt();
+                textos[i] = StandardCharsets.UTF_8.decode(fatia(mapa, tamanho)).toString();
+            }
+            CodecComTabela codec = new CodecComTabela(null, textos);
+
+            int quantidade = in.readInt();
+            for (int i = 0; i < quantidade; i++) {
+                ByteBufferInput registro = new ByteBufferInput(fatia(mapa, in.readInt()));
+                dados.users.add(codec.lerUsuario(registro));
+            }
+
+            quantidade = in.readInt();
+            for (int i = 0; i < quantidade; i++) {
+                ByteBufferInput registro = new ByteBufferInput(fatia(mapa, in.readInt()));
+                Enterprise empresa = codec.lerEmpresa(registro);
+                int produtos = registro.readInt();
+                for (int j = 0; j < produtos; j++) {
+                    empresa.produtos.add(codec.lerProduto(registro));
+                }
+                dados.empresas.add(empresa);
+            }
+
+            quantidade = in.readInt();
+            for (int i = 0; i < quantidade; i++) {
+                ByteBufferInput registro = new ByteBufferInput(fatia(mapa, in.readInt()));
+                dados.pedidos.add(codec.lerPedido(registro));
+            }
+
+            quantidade = in.readInt();
+            for (int i = 0; i < quantidade; i++) {
+                ByteBufferInput registro = new ByteBufferInput(fatia(mapa, in.readInt()));
+                dados.entregas.add(codec.lerEntrega(registro));
+            }
+        }
+        return dados;
+    }
+
+    // Devolve os proximos n bytes como um buffer proprio e avanca o buffer principal;
+    // campos novos no fim de um registro sao ignorados por versoes antigas do leitor.
+    private static ByteBuffer fatia(ByteBuffer buffer, int n) {
+        ByteBuffer fatia = buffer.slice(buffer.position(), n);
+        buffer.position(buffer.position() + n);
+        return fatia;
+    }
+
+    private static void escreverSecoes(DataOutputStream out, EntityCodec codec, RecordBuffer registro,
+                                       List<User> users, List<Enterprise> empresas, List<Pedido> pedidos, List<Entrega> entregas) throws IOException {
+        out.writeInt(users.size());
+        for (User user : users) {
+            registro.reset();
+            codec.escreverUsuario(registro.saida, user);
+            registro.copiarPara(out);
+        }
+
+        out.writeInt(empresas.size());
+        for (Enterprise empresa : empresas) {
+            registro.reset();
+            codec.escreverEmpresa(registro.saida, empresa);
+            registro.saida.writeInt(empresa.produtos.size());
+            for (Produto produto : empresa.produtos) {
+                codec.escreverProduto(registro.saida, produto);
+            }
+            registro.copiarPara(out);
+        }
+
+        out.writeInt(pedidos.size());
+        for (Pedido pedido : pedidos) {
+            registro.reset();
+            codec.escreverPedido(registro.saida, pedido);
+            registro.copiarPara(out);
+        }
+
+        out.writeInt(entregas.size());
+        for (Entrega entrega : entregas) {
+            registro.reset();
+            codec.escreverEntrega(registro.saida, entrega);
+            registro.copiarPara(out);
+        }
+    }
+
+    // Buffer reutilizado para montar um registro antes de gravar o seu tamanho.
+    private static class RecordBuffer extends ByteArrayOutputStream {
+        final DataOutputStream saida = new DataOutputStream(this);
+
+        void copiarPara(DataOutputStream out) throws IOException {
+            out.writeInt(count);
+            out.write(buf, 0, count);
+        }
+    }
+}
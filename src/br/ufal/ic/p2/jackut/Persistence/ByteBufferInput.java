@@ -0,0 +1,136 @@
+package br.ufal.ic.p2.jackut.Persistence;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+// DataInput lendo direto de um ByteBuffer (por exemplo, um arquivo mapeado em memoria), sem copiar para streams.
+public class ByteBufferInput implements DataInput {
+    private final ByteBuffer buffer;
+
+    public ByteBufferInput(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    @Override
+    public void readFully(byte[] b) throws IOException {
+        readFully(b, 0, b.length);
+    }
+
+    @Override
+    public void readFully(byte[] b, int off, int len) throws IOException {
+        if (buffer.remaining() < len) {
+            throw new EOFException();
+        }
+        buffer.get(b, off, len);
+    }
+
+    @Override
+    public int skipBytes(int n) {
+        int pulados = Math.min(n, buffer.remaining());
+        buffer.position(buffer.position() + pulados);
+        return pulados;
+    }
+
+    @Override
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    @Override
+    public byte readByte() throws IOException {
+        try {
+            return buffer.get();
+        } catch (BufferUnderflowException e) {
+            throw new EOFException();
+        }
+    }
+
+    @Override
+    public int readUnsignedByte() throws IOException {
+        return readByte() & 0xFF;
+    }
+
+    @Override
+    public short readShort() throws IOException {
+        try {
+            return buffer.getShort();
+        } catch (BufferUnderflowException e) {
+            throw new EOFException();
+        }
+    }
+
+    @Override
+    public int readUnsignedShort() throws IOException {
+        return readShort() & 0xFFFF;
+    }
+
+    @Override
+    public char readChar() throws IOException {
+        return (char) readShort();
+    }
+
+    @Override
+    public int readInt() throws IOException {
+        try {
+            return buffer.getInt();
+        } catch (BufferUnderflowException e) {
+            throw new EOFException();
+        }
+    }
+
+    @Override
+    public long readLong() throws IOException {
+        try {
+            return buffer.getLong();
+        } catch (BufferUnderflowException e) {
+            throw new EOFException();
+        }
+    }
+
+    @Override
+    public float readFloat() throws IOException {
+        return Float.intBitsToFloat(readInt());
+    }
+
+    @Override
+    public double readDouble() throws IOException {
+        return Double.longBitsToDouble(readLong());
+    }
+
+    // Como o DataInputStream: cada byte vira um char, a linha termina em \n, \r ou \r\n (fora da linha),
+    // e null so quando o buffer ja estava no fim.
+    @Override
+    public String readLine() {
+        if (!buffer.hasRemaining()) {
+            return null;
+        }
+        StringBuilder linha = new StringBuilder();
+        while (buffer.hasRemaining()) {
+            char c = (char) (buffer.get() & 0xFF);
+            if (c == '\n') {
+                break;
+            }
+            if (c == '\r') {
+                if (buffer.hasRemaining() && buffer.get(buffer.position()) == '\n') {
+                    buffer.get();
+                }
+                break;
+            }
+            linha.append(c);
+        }
+        return linha.toString();
+    }
+
+    @Override
+    public String readUTF() throws IOException {
+        return DataInputStream.readUTF(this);
+    }
+}
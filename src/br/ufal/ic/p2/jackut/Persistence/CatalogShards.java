@@ -0,0 +1,87 @@
+package br.ufal.ic.p2.jackut.Persistence;
+
+import br.ufal.ic.p2.jackut.Enterprises.Enterprise;
+import br.ufal.ic.p2.jackut.XMLUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+// Catalogo dividido: cada empresa (com os seus produtos) fica no seu proprio arquivo empresa-<id>.xml,
+// no mesmo formato de empresas.xml, e o manifesto guarda so a ordem das empresas.
+// Salvar reescreve apenas os arquivos das empresas alteradas e o manifesto.
+public class CatalogShards {
+    private final File diretorio;
+    private final File manifesto;
+
+    public CatalogShards(File diretorio) {
+        this.diretorio = diretorio;
+        this.manifesto = new File(diretorio, "manifesto.xml");
+    }
+
+    public boolean existe() {
+        return manifesto.exists();
+    }
+
+    // Os arquivos das empresas sao lidos em paralelo; a lista sai na ordem do manifesto.
+    public List<Enterprise> carregar() {
+        List<Integer> ids = new ArrayList<>();
+        try (XMLScanner xml = XMLScanner.abrir(manifesto.getPath())) {
+            int evento;
+            while ((evento = xml.proximo()) != XMLScanner.FIM_ARQUIVO) {
+                if (evento == XMLScanner.INICIO && xml.eh("empresa")) {
+                    ids.add(xml.lerInt());
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        List<Enterprise> empresas = new ArrayList<>(ids.size());
+        ids.parallelStream()
+                .map(id -> XMLUtils.lerEmpresas(arquivo(id).getPath()))
+                .toList()
+                .forEach(empresas::addAll);
+        return empresas;
+    }
+
+    // ordem: ids de todas as empresas, na ordem da lista; alteradas: as que precisam ser regravadas.
+    // O manifesto e gravado por ultimo, entao nunca aponta para um arquivo que ainda nao existe.
+    public void salvar(List<Integer> ordem, Collection<Enterprise> alteradas) throws IOException {
+        diretorio.mkdirs();
+        for (Enterprise empresa : alteradas) {
+            XMLUtils.salvarEmpresas(List.of(empresa), arquivo(empresa.id).getPath());
+        }
+
+        try (AtomicFileWriter arquivo = AtomicFileWriter.abrir(manifesto.getPath())) {
+            XMLWriter xml = new XMLWriter(arquivo);
+            xml.declaracao();
+            xml.abrir("catalogo");
+            for (int id : ordem) {
+                xml.campo("empresa", id);
+            }
+            xml.fechar("catalogo");
+            xml.flush();
+            arquivo.concluir();
+        }
+    }
+
+    public void limpar() {
+        File[] arquivos = diretorio.listFiles();
+        if (arquivos == null) {
+            return;
+        }
+        // O manifesto sai primeiro: sem ele o diretorio e ignorado na carga.
+        manifesto.delete();
+        for (File arquivo : arquivos) {
+            arquivo.delete();
+        }
+        diretorio.delete();
+    }
+
+    private File arquivo(int id) {
+        return new File(diretorio, "empresa-" + id + ".xml");
+    }
+}
@@ -0,0 +1,84 @@
+package br.ufal.ic.p2.jackut.Persistence;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Grava checkpoints numa thread propria, fora do caminho das requisicoes.
+// Quem chama captura o estado (copias em memoria) e entrega uma Tarefa; a thread "myfood-checkpoint"
+// faz a gravacao, o fsync e o rename. Um checkpoint so e pedido depois que o anterior terminou,
+// entao as tarefas nunca se sobrepoem nem se acumulam.
+public class Checkpointer {
+    public interface Tarefa {
+        void executar() throws IOException;
+    }
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "myfood-checkpoint");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final int limiteAlteracoes;
+    private final long intervalo;
+    private int alteracoes;
+    private long ultimo = System.currentTimeMillis();
+    private Future<?> anterior;
+    private volatile boolean falhou;
+
+    // limiteAlteracoes: mutacoes desde o ultimo checkpoint que disparam um novo.
+    // intervalo: tempo (ms) maximo entre checkpoints enquanto houver mutacoes.
+    public Checkpointer(int limiteAlteracoes, long intervalo) {
+        this.limiteAlteracoes = limiteAlteracoes;
+        this.intervalo = intervalo;
+    }
+
+    // Chamado a cada mutacao, de qualquer thread; diz se ja e hora de capturar um novo checkpoint.
+    public synchronized boolean alterado() {
+        alteracoes++;
+        if (anterior != null && !anterior.isDone()) {
+            return false;
+        }
+        return alteracoes >= limiteAlteracoes || System.currentTimeMillis() - ultimo >= intervalo;
+    }
+
+    public synchronized void agendar(Tarefa tarefa) {
+        alteracoes = 0;
+        ultimo = System.currentTimeMillis();
+        anterior = executor.submit(() -> {
+            try {
+                tarefa.executar();
+            } catch (IOException e) {
+                e.printStackTrace();
+                falhou = true;
+            }
+        });
+    }
+
+    // Espera o checkpoint em andamento (usado em encerrarSistema e zerarSistema).
+    public void aguardar() {
+        Future<?> atual;
+        synchronized (this) {
+            atual = anterior;
+        }
+        if (atual == null) {
+            return;
+        }
+        try {
+            atual.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+            falhou = true;
+        }
+    }
+
+    // Se o ultimo checkpoint falhou; o estado que ele levava precisa ir no proximo.
+    public boolean falhou() {
+        boolean resultado = falhou;
+        falhou = false;
+        return resultado;
+    }
+}
@@ -0,0 +1,431 @@
+package br.ufal.ic.p2.jackut.Persistence;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+// Armazenamento so de acrescimo, em segmentos <prefixo>-NNNNNN.seg de ate TAMANHO_SEGMENTO bytes.
+// Um registro e [int tamanho][byte tipo][int id][int chaves...][dados][int crc32]; um lote e
+// [int tamanho][byte LOTE][int quantidade][entradas][int crc32], com cada entrada no formato de um registro
+// sem o crc, e so vale inteiro. As chaves secundarias ficam no cabecalho para que a abertura reconstrua os
+// indices sem decodificar as entidades.
+// Em memoria ficam so o indice id -> posicao e um cache LRU com no maximo capacidadeCache entidades.
+// Versoes superadas viram lixo: compactar() reacrescenta os registros ainda validos dos segmentos com mais
+// lixo do que dados e apaga esses segmentos.
+public class ColdStore<T> implements Closeable {
+    private static final byte VALOR = 1;
+    private static final byte REMOCAO = 2;
+    private static final byte LOTE = 3;
+    private static final long TAMANHO_SEGMENTO = 64L << 20;
+    // Segmentos menores que isso nao sao compactados, por mais lixo que tenham.
+    private static final long COMPACTAR_MINIMO = 1L << 20;
+
+    public interface Formato<T> {
+        int id(T valor);
+
+        // Chaves gravadas por gravar(valor); gravarLote recebe as chaves junto com os valores.
+        default int[] chaves(T valor) {
+            return new int[0];
+        }
+
+        void escrever(DataOutput out, T valor) throws IOException;
+
+        T ler(DataInput in) throws IOException;
+    }
+
+    // Recebe cada registro valido na abertura, na ordem em que foi gravado.
+    public interface Visitante {
+        void visitar(boolean removido, int id, int[] chaves);
+    }
+
+    // Entrada [tipo][id][chaves][dados] em corpo[inicio, inicio + tamanho); ocupado e o espaco dela no segmento.
+    private interface LeitorEntrada {
+        void ler(long endereco, byte[] corpo, int inicio, int tamanho, int ocupado) throws IOException;
+    }
+
+    private static class Buffer extends ByteArrayOutputStream {
+        byte[] dados() {
+            return buf;
+        }
+    }
+
+    private final File diretorio;
+    private final String prefixo;
+    private final Formato<T> formato;
+    private final int quantidadeChaves;
+    private final Map<Integer, Long> indice = new HashMap<>(); // id -> (segmento << 40) | posicao
+    private final Map<Integer, Integer> ocupados = new HashMap<>(); // id -> bytes do registro valido
+    private final Map<Integer, Long> vivos = new HashMap<>(); // segmento -> bytes em registros validos
+    private final Map<Integer, T> cache;
+    private final TreeMap<Integer, FileChannel> segmentos = new TreeMap<>();
+    // Segmentos com escritas ainda sem force: uma gravacao que passa para um segmento novo deixa a cauda do anterior.
+    private final Set<Integer> naoSincronizados = new HashSet<>();
+    private final Buffer entrada = new Buffer();
+    private final DataOutputStream saida = new DataOutputStream(entrada);
+    private final Buffer lote = new Buffer();
+    private final DataOutputStream saidaLote = new DataOutputStream(lote);
+    private final CRC32 crc = new CRC32();
+
+    public ColdStore(File diretorio, String prefixo, int quantidadeChaves, Formato<T> formato, int capacidadeCache) {
+        this.diretorio = diretorio;
+        this.prefixo = prefixo;
+        this.quantidadeChaves = quantidadeChaves;
+        this.formato = formato;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, T> maisAntiga) {
+                return size() > capacidadeCache;
+            }
+        };
+    }
+
+    // Se ha algum segmento no disco, mesmo antes de abrir().
+    public synchronized boolean existe() {
+        return !numerosExistentes().isEmpty();
+    }
+
+    // Abre os segmentos existentes, reconstroi o indice e descarta uma cauda incompleta (queda no meio de uma escrita).
+    public synchronized void abrir(Visitante visitante) throws IOException {
+        diretorio.mkdirs();
+        int[] chaves = new int[quantidadeChaves];
+        for (int numero : numerosExistentes()) {
+            FileChannel canal = FileChannel.open(arquivo(numero).toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            segmentos.put(numero, canal);
+            long valido = percorrer(numero, (endereco, corpo, inicio, tamanho, ocupado) -> {
+                ByteBuffer cabecalho = ByteBuffer.wrap(corpo, inicio, tamanho);
+                boolean removido = cabecalho.get() == REMOCAO;
+                int id = cabecalho.getInt();
+                for (int i = 0; i < quantidadeChaves; i++) {
+                    chaves[i] = cabecalho.getInt();
+                }
+                if (removido) {
+                    esquecer(id);
+                } else {
+                    indexar(id, endereco, ocupado);
+                }
+                visitante.visitar(removido, id, chaves);
+            });
+            if (valido < canal.size()) {
+                canal.truncate(valido);
+            }
+        }
+    }
+
+    public synchronized boolean contem(int id) {
+        return indice.containsKey(id);
+    }
+
+    // O maior id guardado, ou -1.
+    public synchronized int maiorId() {
+        int maior = -1;
+        for (int id : indice.keySet()) {
+            maior = Math.max(maior, id);
+        }
+        return maior;
+    }
+
+    public synchronized T ler(int id) throws IOException {
+        T valor = cache.get(id);
+        if (valor != null) {
+            return valor;
+        }
+        Long endereco = indice.get(id);
+        if (endereco == null) {
+            return null;
+        }
+
+        FileChannel canal = segmentos.get(segmento(endereco));
+        long posicao = endereco & ((1L << 40) - 1);
+        ByteBuffer tamanho = ByteBuffer.allocate(4);
+        lerTudo(canal, tamanho, posicao);
+        ByteBuffer corpo = ByteBuffer.allocate(tamanho.getInt(0));
+        lerTudo(canal, corpo, posicao + 4);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(corpo.array()));
+        in.skipBytes(1 + 4 + 4 * quantidadeChaves);
+        valor = formato.ler(in);
+        cache.put(id, valor);
+        return valor;
+    }
+
+    // Todos os valores validos, na ordem dos segmentos, numa leitura sequencial (sem passar pelo cache).
+    public synchronized List<T> lerTodos() throws IOException {
+        List<T> valores = new ArrayList<>(indice.size());
+        int cabecalho = 1 + 4 + 4 * quantidadeChaves;
+        for (int numero : segmentos.keySet()) {
+            percorrer(numero, (endereco, corpo, inicio, tamanho, ocupado) -> {
+                int id = ByteBuffer.wrap(corpo).getInt(inicio + 1);
+                if (corpo[inicio] == VALOR && Objects.equals(indice.get(id), endereco)) {
+                    valores.add(formato.ler(new DataInputStream(new ByteArrayInputStream(corpo, inicio + cabecalho, tamanho - cabecalho))));
+                }
+            });
+        }
+        return valores;
+    }
+
+    // Acrescenta o valor ao segmento atual. Ele passa a ser servido pelo cache ate ser expulso.
+    public synchronized void gravar(T valor) throws IOException {
+        int id = formato.id(valor);
+        escreverEntrada(VALOR, id, formato.chaves(valor), valor);
+        indexar(id, acrescentar(entrada.dados(), 0, entrada.size()), entrada.size() + 8);
+        cache.put(id, valor);
+    }
+
+    public synchronized void remover(int id) throws IOException {
+        if (!indice.containsKey(id)) {
+            return;
+        }
+        escreverEntrada(REMOCAO, id, new int[quantidadeChaves], null);
+        acrescentar(entrada.dados(), 0, entrada.size());
+        esquecer(id);
+        cache.remove(id);
+    }
+
+    // Grava os valores (com as chaves de cada um) e as remocoes num registro so: numa queda,
+    // ou o lote inteiro vale ou nenhuma parte dele.
+    public synchronized void gravarLote(List<T> valores, List<int[]> chaves, Collection<Integer> removidos) throws IOException {
+        lote.reset();
+        saidaLote.writeByte(LOTE);
+        saidaLote.writeInt(valores.size() + removidos.size());
+        int[] posicoes = new int[valores.size()];
+        int[] tamanhos = new int[valores.size()];
+        for (int i = 0; i < valores.size(); i++) {
+            escreverEntrada(VALOR, formato.id(valores.get(i)), chaves.get(i), valores.get(i));
+            posicoes[i] = lote.size();
+            tamanhos[i] = entrada.size() + 4;
+            saidaLote.writeInt(entrada.size());
+            entrada.writeTo(saidaLote);
+        }
+        for (int id : removidos) {
+            escreverEntrada(REMOCAO, id, new int[quantidadeChaves], null);
+            saidaLote.writeInt(entrada.size());
+            entrada.writeTo(saidaLote);
+        }
+
+        long endereco = acrescentar(lote.dados(), 0, lote.size());
+        for (int i = 0; i < valores.size(); i++) {
+            int id = formato.id(valores.get(i));
+            indexar(id, endereco + 4 + posicoes[i], tamanhos[i]);
+            cache.remove(id);
+        }
+        for (int id : removidos) {
+            esquecer(id);
+            cache.remove(id);
+        }
+    }
+
+    public synchronized void sincronizar() throws IOException {
+        for (Iterator<Integer> numeros = naoSincronizados.iterator(); numeros.hasNext(); ) {
+            FileChannel canal = segmentos.get(numeros.next());
+            if (canal != null) {
+                canal.force(false);
+            }
+            numeros.remove();
+        }
+    }
+
+    // Se algum segmento tem mais lixo do que registros validos.
+    public boolean precisaCompactar() throws IOException {
+        return !candidatos().isEmpty();
+    }
+
+    // Compacta um segmento por vez, cada um sob o lock: as gravacoes esperam no maximo a copia de um segmento.
+    public void compactar() throws IOException {
+        for (int numero : candidatos()) {
+            compactar(numero);
+        }
+    }
+
+    // Apaga todos os segmentos (zerarSistema).
+    public synchronized void limpar() throws IOException {
+        close();
+        for (int numero : numerosExistentes()) {
+            arquivo(numero).delete();
+        }
+        indice.clear();
+        ocupados.clear();
+        vivos.clear();
+        cache.clear();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (FileChannel canal : segmentos.values()) {
+            canal.close();
+        }
+        segmentos.clear();
+        naoSincronizados.clear();
+    }
+
+    private synchronized List<Integer> candidatos() throws IOException {
+        List<Integer> numeros = new ArrayList<>();
+        for (Map.Entry<Integer, FileChannel> segmento : segmentos.entrySet()) {
+            long tamanho = segmento.getValue().size();
+            if (tamanho >= COMPACTAR_MINIMO && vivos.getOrDefault(segmento.getKey(), 0L) * 2 < tamanho) {
+                numeros.add(segmento.getKey());
+            }
+        }
+        return numeros;
+    }
+
+    // Reacrescenta os registros ainda validos do segmento e depois o apaga. Uma remocao so e mantida se o id
+    // continua removido e pode haver um valor antigo dele num segmento anterior. Numa queda antes do delete,
+    // as copias sao identicas aos originais e a abertura chega ao mesmo indice.
+    private synchronized void compactar(int numero) throws IOException {
+        FileChannel canal = segmentos.get(numero);
+        if (canal == null) {
+            return;
+        }
+        if (numero == segmentos.lastKey()) {
+            novoSegmento();
+        }
+        boolean anteriores = segmentos.firstKey() < numero;
+        percorrer(numero, (endereco, corpo, inicio, tamanho, ocupado) -> {
+            int id = ByteBuffer.wrap(corpo).getInt(inicio + 1);
+            if (corpo[inicio] == VALOR && Objects.equals(indice.get(id), endereco)) {
+                indexar(id, acrescentar(corpo, inicio, tamanho), tamanho + 8);
+            } else if (corpo[inicio] == REMOCAO && anteriores && !indice.containsKey(id)) {
+                acrescentar(corpo, inicio, tamanho);
+            }
+        });
+        // O segmento de origem vai ser apagado; os de destino, inclusive os que encheram no meio da copia, vao para o disco antes.
+        naoSincronizados.remove(numero);
+        sincronizar();
+        segmentos.remove(numero).close();
+        vivos.remove(numero);
+        arquivo(numero).delete();
+    }
+
+    private void escreverEntrada(byte tipo, int id, int[] chaves, T valor) throws IOException {
+        entrada.reset();
+        saida.writeByte(tipo);
+        saida.writeInt(id);
+        for (int chave : chaves) {
+            saida.writeInt(chave);
+        }
+        if (valor != null) {
+            formato.escrever(saida, valor);
+        }
+    }
+
+    private void indexar(int id, long endereco, int ocupado) {
+        esquecer(id);
+        indice.put(id, endereco);
+        ocupados.put(id, ocupado);
+        vivos.merge(segmento(endereco), (long) ocupado, Long::sum);
+    }
+
+    private void esquecer(int id) {
+        Long endereco = indice.remove(id);
+        if (endereco != null) {
+            vivos.merge(segmento(endereco), -(long) ocupados.remove(id), Long::sum);
+        }
+    }
+
+    private long acrescentar(byte[] dados, int inicio, int tamanho) throws IOException {
+        if (segmentos.isEmpty() || segmentos.lastEntry().getValue().size() >= TAMANHO_SEGMENTO) {
+            novoSegmento();
+        }
+        FileChannel canal = segmentos.lastEntry().getValue();
+
+        crc.reset();
+        crc.update(dados, inicio, tamanho);
+        ByteBuffer bytes = ByteBuffer.allocate(tamanho + 8);
+        bytes.putInt(tamanho);
+        bytes.put(dados, inicio, tamanho);
+        bytes.putInt((int) crc.getValue());
+        bytes.flip();
+
+        long posicao = canal.size();
+        while (bytes.hasRemaining()) {
+            canal.write(bytes, posicao + bytes.position());
+        }
+        naoSincronizados.add(segmentos.lastKey());
+        return ((long) segmentos.lastKey() << 40) | posicao;
+    }
+
+    private void novoSegmento() throws IOException {
+        int numero = segmentos.isEmpty() ? 0 : segmentos.lastKey() + 1;
+        diretorio.mkdirs();
+        segmentos.put(numero, FileChannel.open(arquivo(numero).toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE));
+    }
+
+    // Passa por cada entrada integra do segmento, abrindo os lotes; devolve onde termina o ultimo registro integro.
+    private long percorrer(int numero, LeitorEntrada leitor) throws IOException {
+        long valido = 0;
+        CRC32 verificador = new CRC32();
+        File arquivo = arquivo(numero);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(arquivo), 1 << 16))) {
+            long restante = arquivo.length();
+            while (restante >= 8) {
+                int tamanho = in.readInt();
+                if (tamanho < 5 || tamanho + 8L > restante) {
+                    break;
+                }
+                byte[] corpo = new byte[tamanho];
+                in.readFully(corpo);
+                int esperado = in.readInt();
+                verificador.reset();
+                verificador.update(corpo, 0, tamanho);
+                if ((int) verificador.getValue() != esperado) {
+                    break;
+                }
+
+                long endereco = ((long) numero << 40) | valido;
+                if (corpo[0] == LOTE) {
+                    ByteBuffer bytes = ByteBuffer.wrap(corpo);
+                    int quantidade = bytes.getInt(1);
+                    int inicio = 5;
+                    for (int i = 0; i < quantidade; i++) {
+                        int tamanhoEntrada = bytes.getInt(inicio);
+                        leitor.ler(endereco + 4 + inicio, corpo, inicio + 4, tamanhoEntrada, tamanhoEntrada + 4);
+                        inicio += 4 + tamanhoEntrada;
+                    }
+                } else {
+                    leitor.ler(endereco, corpo, 0, tamanho, tamanho + 8);
+                }
+
+                restante -= tamanho + 8L;
+                valido += tamanho + 8L;
+            }
+        }
+        return valido;
+    }
+
+    private List<Integer> numerosExistentes() {
+        List<Integer> numeros = new ArrayList<>();
+        String[] nomes = diretorio.list();
+        if (nomes == null) {
+            return numeros;
+        }
+        for (String nome : nomes) {
+            if (nome.startsWith(prefixo + "-") && nome.endsWith(".seg")) {
+                String numero = nome.substring(prefixo.length() + 1, nome.length() - 4);
+                if (numero.matches("\\d+")) {
+                    numeros.add(Integer.parseInt(numero));
+                }
+            }
+        }
+        Collections.sort(numeros);
+        return numeros;
+    }
+
+    private File arquivo(int numero) {
+        return new File(diretorio, String.format("%s-%06d.seg", prefixo, numero));
+    }
+
+    private static int segmento(long endereco) {
+        return (int) (endereco >>> 40);
+    }
+
+    private static void lerTudo(FileChannel canal, ByteBuffer destino, long posicao) throws IOException {
+        while (destino.hasRemaining()) {
+            if (canal.read(destino, posicao + destino.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package br.ufal.ic.p2.jackut.Persistence;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Guarda, por colecao, os ids das entidades que mudaram desde o ultimo snapshot salvo.
+// Marcado por varias threads de requisicao ao mesmo tempo; lido e limpo so com o Sistema travado.
+public class DirtyTracker {
+    public enum Colecao { USUARIOS, EMPRESAS, PEDIDOS, ENTREGAS }
+
+    private final Map<Colecao, Set<Integer>> sujos = new EnumMap<>(Colecao.class);
+
+    public DirtyTracker() {
+        for (Colecao colecao : Colecao.values()) {
+            sujos.put(colecao, ConcurrentHashMap.newKeySet());
+        }
+    }
+
+    public void marcar(Colecao colecao, int id) {
+        sujos.get(colecao).add(id);
+    }
+
+    public boolean sujo(Colecao colecao) {
+        return !sujos.get(colecao).isEmpty();
+    }
+
+    public int quantidade(Colecao colecao) {
+        return sujos.get(colecao).size();
+    }
+
+    public Set<Integer> ids(Colecao colecao) {
+        return sujos.get(colecao);
+    }
+
+    public void limpar(Colecao colecao) {
+        sujos.get(colecao).clear();
+    }
+
+    public void limparTudo() {
+        for (Set<Integer> ids : sujos.values()) {
+            ids.clear();
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package br.ufal.ic.p2.jackut.Persistence;
+
+import br.ufal.ic.p2.jackut.Enterprises.Enterprise;
+import br.ufal.ic.p2.jackut.Enterprises.Farmacia;
+import br.ufal.ic.p2.jackut.Enterprises.Mercado;
+import br.ufal.ic.p2.jackut.Enterprises.Restaurante;
+import br.ufal.ic.p2.jackut.Entrega;
+import br.ufal.ic.p2.jackut.EstadoPedido;
+import br.ufal.ic.p2.jackut.Pedido;
+import br.ufal.ic.p2.jackut.Produto;
+import br.ufal.ic.p2.jackut.Users.Cliente;
+import br.ufal.ic.p2.jackut.Users.Dono;
+import br.ufal.ic.p2.jackut.Users.Entregador;
+import br.ufal.ic.p2.jackut.Users.User;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Codificacao binaria compacta das entidades, usada pelos registros do journal e pelo snapshot binario.
+// Campos que podem ser nulos levam um byte de presenca antes do valor. Subclasses podem trocar
+// a forma de gravar textos (o snapshot grava indices de uma tabela de textos).
+public class EntityCodec {
+    public static final EntityCodec PADRAO = new EntityCodec();
+
+    public void escreverUsuario(DataOutput out, User user) throws IOException {
+        escreverTexto(out, user.isWhatType());
+        out.writeInt(user.id);
+        escreverTexto(out, user.nome);
+        escreverTexto(out, user.email);
+        escreverTexto(out, user.senha);
+        escreverTexto(out, user.endereco);
+        if (user.isWhatType().equals("Dono")) {
+            escreverTexto(out, ((Dono) user).cpf);
+        } else if (user.isWhatType().equals("Entregador")) {
+            Entregador entregador = (Entregador) user;
+            escreverTexto(out, entregador.veiculo);
+            escreverTexto(out, entregador.placa);
+            escreverLogico(out, entregador.ocupado);
+            escreverInteiros(out, entregador.empresas);
+        }
+    }
+
+    public User lerUsuario(DataInput in) throws IOException {
+        String tipo = lerTexto(in);
+        User user = switch (tipo) {
+            case "Cliente" -> new Cliente("", null, null, null);
+            case "Dono" -> new Dono("", null, null, null, null);
+            case "Entregador" -> new Entregador("", null, null, null, null, null);
+            default -> throw new IOException("Tipo de usuario desconhecido: " + tipo);
+        };
+        user.id = in.readInt();
+        user.nome = lerTexto(in);
+        user.email = lerTexto(in);
+        user.senha = lerTexto(in);
+        user.endereco = lerTexto(in);
+        if (tipo.equals("Dono")) {
+            ((Dono) user).cpf = lerTexto(in);
+        } else if (tipo.equals("Entregador")) {
+            Entregador entregador = (Entregador) user;
+            entregador.veiculo = lerTexto(in);
+            entregador.placa = lerTexto(in);
+            entregador.ocupado = lerLogico(in);
+            entregador.empresas = lerInteiros(in);
+        }
+        return user;
+    }
+
+    // Os produtos da empresa nao fazem parte do registro; cada um tem o seu (escreverProduto).
+    public void escreverEmpresa(DataOutput out, Enterprise empresa) throws IOException {
+        escreverTexto(out, empresa.isWhatType());
+        out.writeInt(empresa.id);
+        out.writeInt(empresa.idDono);
+        escreverTexto(out, empresa.nome);
+        escreverTexto(out, empresa.endereco);
+        escreverInteiros(out, empresa.entregadores);
+        if (empresa.isWhatType().equals("Restaurante")) {
+            escreverTexto(out, ((Restaurante) empresa).tipoCozinha);
+        } else if (empresa.isWhatType().equals("Mercado")) {
+            Mercado mercado = (Mercado) empresa;
+            escreverTexto(out, mercado.abre);
+            escreverTexto(out, mercado.fecha);
+            escreverTexto(out, mercado.tipoMercado);
+        } else if (empresa.isWhatType().equals("Farmacia")) {
+            Farmacia farmacia = (Farmacia) empresa;
+            escreverLogico(out, farmacia.aberto24horas);
+            out.writeBoolean(farmacia.numeroFuncionarios != null);
+            if (farmacia.numeroFuncionarios != null) {
+                out.writeInt(farmacia.numeroFuncionarios);
+            }
+        }
+    }
+
+    public Enterprise lerEmpresa(DataInput in) throws IOException {
+        String tipo = lerTexto(in);
+        Enterprise empresa = switch (tipo) {
+            case "Restaurante" -> new Restaurante(null, null, null, 0);
+            case "Mercado" -> new Mercado(0, null, null, null, null, null);
+            case "Farmacia" -> new Farmacia(0, null, null, null, null);
+            default -> throw new IOException("Tipo de empresa desconhecido: " + tipo);
+        };
+        empresa.id = in.readInt();
+        empresa.idDono = in.readInt();
+        empresa.nome = lerTexto(in);
+        empresa.endereco = lerTexto(in);
+        empresa.entregadores = lerInteiros(in);
+        if (tipo.equals("Restaurante")) {
+            ((Restaurante) empresa).tipoCozinha = lerTexto(in);
+        } else if (tipo.equals("Mercado")) {
+            Mercado mercado = (Mercado) empresa;
+            mercado.abre = lerTexto(in);
+            mercado.fecha = lerTexto(in);
+            mercado.tipoMercado = lerTexto(in);
+        } else {
+            Farmacia farmacia = (Farmacia) empresa;
+            farmacia.aberto24horas = lerLogico(in);
+            farmacia.numeroFuncionarios = in.readBoolean() ? in.readInt() : null;
+        }
+        return empresa;
+    }
+
+    public void escreverProduto(DataOutput out, Produto produto) throws IOException {
+        out.writeInt(produto.numero);
+        escreverTexto(out, produto.nome);
+        out.writeFloat(produto.valor);
+        escreverTexto(out, produto.categoria);
+    }
+
+    public Produto lerProduto(DataInput in) throws IOException {
+        Produto produto = new Produto("", 0, "");
+        produto.numero = in.readInt();
+        produto.nome = lerTexto(in);
+        produto.valor = in.readFloat();
+        produto.categoria = lerTexto(in);
+        return produto;
+    }
+
+    public void escreverPedido(DataOutput out, Pedido pedido) throws IOException {
+        out.writeInt(pedido.numero);
+        out.writeInt(pedido.cliente);
+        out.writeInt(pedido.empresa);
+        escreverTexto(out, pedido.estado.texto);
+        out.writeInt(pedido.produtos.size());
+        for (Produto produto : pedido.produtos) {
+            escreverProduto(out, produto);
+        }
+    }
+
+    public Pedido lerPedido(DataInput in) throws IOException {
+        Pedido pedido = new Pedido(0, 0);
+        pedido.numero = in.readInt();
+        pedido.cliente = in.readInt();
+        pedido.empresa = in.readInt();
+        pedido.estado = EstadoPedido.de(lerTexto(in));
+        int quantidade = in.readInt();
+        for (int i = 0; i < quantidade; i++) {
+            pedido.produtos.add(lerProduto(in));
+        }
+        return pedido;
+    }
+
+    public void escreverEntrega(DataOutput out, Entrega entrega) throws IOException {
+        out.writeInt(entrega.id);
+        escreverTexto(out, entrega.cliente);
+        escreverTexto(out, entrega.empresa);
+        out.writeInt(entrega.pedido);
+        out.writeInt(entrega.entregador);
+        escreverTexto(out, entrega.destino);
+        out.writeBoolean(entrega.produtos != null);
+        if (entrega.produtos != null) {
+            out.writeInt(entrega.produtos.size());
+            for (String produto : entrega.produtos) {
+                escreverTexto(out, produto);
+            }
+        }
+    }
+
+    public Entrega lerEntrega(DataInput in) throws IOException {
+        Entrega entrega = new Entrega(null, null, null, null, null, null);
+        entrega.id = in.readInt();
+        entrega.cliente = lerTexto(in);
+        entrega.empresa = lerTexto(in);
+        entrega.pedido = in.readInt();
+        entrega.entregador = in.readInt();
+        entrega.destino = lerTexto(in);
+        if (in.readBoolean()) {
+            int quantidade = in.readInt();
+            entrega.produtos = new ArrayList<>(quantidade);
+            for (int i = 0; i < quantidade; i++) {
+                entrega.produtos.add(lerTexto(in));
+            }
+        }
+        return entrega;
+    }
+
+    protected void escreverTexto(DataOutput out, String texto) throws IOException {
+        out.writeBoolean(texto != null);
+        if (texto != null) {
+            out.writeUTF(texto);
+        }
+    }
+
+    protected String lerTexto(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void escreverLogico(DataOutput out, Boolean valor) throws IOException {
+        out.writeByte(valor == null ? 0 : valor ? 2 : 1);
+    }
+
+    private static Boolean lerLogico(DataInput in) throws IOException {
+        byte valor = in.readByte();
+        return valor == 0 ? null : valor == 2;
+    }
+
+    private static void escreverInteiros(DataOutput out, List<Integer> valores) throws IOException {
+        out.writeInt(valores.size());
+        for (int valor : valores) {
+            out.writeInt(valor);
+        }
+    }
+
+    private static ArrayList<Integer> lerInteiros(DataInput in) throws IOException {
+        int quantidade = in.readInt();
+        ArrayList<Integer> valores = new ArrayList<>(quantidade);
+        for (int i = 0; i < quantidade; i++) {
+            valores.add(in.readInt());
+        }
+        return valores;
+    }
+}
@@ -0,0 +1,563 @@
+package br.ufal.ic.p2.jackut.Persistence;
+
+import br.ufal.ic.p2.jackut.Enterprises.Enterprise;
+import br.ufal.ic.p2.jackut.Entrega;
+import br.ufal.ic.p2.jackut.Pedido;
+import br.ufal.ic.p2.jackut.Produto;
+import br.ufal.ic.p2.jackut.Users.User;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+// Journal de escrita antecipada (write-ahead) das mutacoes do Sistema.
+// Cada registro e o estado completo da entidade alterada, entao reaplicar o mesmo registro duas vezes
+// nao muda a entidade. A excecao e PEDIDO_FECHADO, que tambem move o pedido para o fim da lista: quem reaplica
+// nao pode move-lo de novo se o estado carregado ja tem o pedido fechado.
+// Formato: [int tamanho][byte tipo][dados][int crc32].
+// As escritas sao agrupadas (group commit): uma thread escritora grava o lote pendente e faz um unico fsync.
+// Se a gravacao falha, o lote volta para a fila e e tentado de novo; ate la, quem espera por ele recebe a falha.
+public class Journal implements Closeable {
+    public static final byte USUARIO = 1;
+    public static final byte EMPRESA = 2;
+    public static final byte PRODUTO = 3;
+    public static final byte PEDIDO = 4;
+    public static final byte PEDIDO_FECHADO = 5; // fecharPedido move o pedido para o fim da lista
+    public static final byte PEDIDO_REMOVIDO = 6;
+    public static final byte ENTREGA = 7;
+
+    private static final long ESPERA_APOS_FALHA = 100; // ms entre tentativas de gravar um lote que falhou
+
+    public interface Aplicador {
+        void aplicar(byte tipo, DataInputStream in) throws IOException;
+    }
+
+    private interface Escrita {
+        void escrever(DataOutputStream out) throws IOException;
+    }
+
+    private static class Buffer extends ByteArrayOutputStream {
+        byte[] dados() {
+            return buf;
+        }
+    }
+
+    private final File arquivo;
+    private final long intervalo;
+    private final boolean sincrono;
+
+    private final Object trava = new Object();
+    private final Buffer registro = new Buffer();
+    private final DataOutputStream saida = new DataOutputStream(registro);
+    private final CRC32 crc = new CRC32();
+    private Buffer pendente = new Buffer();
+    private Buffer gravando = new Buffer();
+    private long registrados;
+    private long duraveis;
+    // Posicoes logicas em bytes: tudo o que ja foi registrado e onde o arquivo atual comeca nessa sequencia.
+    private long fimLogico;
+    private long inicioArquivo;
+    // O arquivo esta em uso fora da trava: gravacao de um lote ou truncar/descartarAte.
+    private boolean escrevendo;
+    private boolean fechado;
+    private int aguardando;
+    private FileChannel canal;
+    private Thread escritor;
+    // Erro da ultima tentativa de gravar; null depois de uma gravacao bem-sucedida.
+    private IOException falha;
+    // Tamanho valido do arquivo quando o canal teve que ser fechado sem conseguir cortar um lote pela metade.
+    private long validoNoArquivo = -1;
+
+    // intervalo: quanto tempo (ms) o escritor espera juntando registros antes do fsync.
+    // sincrono: cada mutacao so retorna depois que o seu lote estiver no disco.
+    public Journal(File arquivo, long intervalo, boolean sincrono) {
+        this.arquivo = arquivo;
+        this.intervalo = intervalo;
+        this.sincrono = sincrono;
+    }
+
+    // Journal que nao grava nada, para quando a opcao myfood.journal esta desligada.
+    public static Journal desativado() {
+        return new Journal(null, 0, false);
+    }
+
+    // Reaplica os registros validos do arquivo e descarta uma cauda incompleta (queda no meio de uma escrita).
+    public void reproduzir(Aplicador aplicador) throws IOException {
+        if (arquivo == null || !arquivo.exists()) {
+            return;
+        }
+
+        long valido = 0;
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(arquivo)))) {
+            long restante = arquivo.length();
+            while (restante >= 8) {
+                int tamanho = in.readInt();
+                if (tamanho <= 0 || tamanho + 8L > restante) {
+                    break;
+                }
+                byte[] dados = new byte[tamanho];
+                in.readFully(dados);
+                int esperado = in.readInt();
+                crc.reset();
+                crc.update(dados, 0, tamanho);
+                if ((int) crc.getValue() != esperado) {
+                    break;
+                }
+                aplicador.aplicar(dados[0], new DataInputStream(new ByteArrayInputStream(dados, 1, tamanho - 1)));
+                restante -= tamanho + 8L;
+                valido += tamanho + 8L;
+            }
+        }
+
+        if (valido < arquivo.length()) {
+            try (FileChannel ch = FileChannel.open(arquivo.toPath(), StandardOpenOption.WRITE)) {
+                ch.truncate(valido);
+            }
+        }
+        synchronized (trava) {
+            fimLogico += valido;
+        }
+    }
+
+    public void registrarUsuario(User user) {
+        registrar(USUARIO, out -> EntityCodec.PADRAO.escreverUsuario(out, user));
+    }
+
+    public void registrarEmpresa(Enterprise empresa) {
+        registrar(EMPRESA, out -> EntityCodec.PADRAO.escreverEmpresa(out, empresa));
+    }
+
+    public void registrarProduto(int empresa, Produto produto) {
+        registrar(PRODUTO, out -> {
+            out.writeInt(empresa);
+            EntityCodec.PADRAO.escreverProduto(out, produto);
+        });
+    }
+
+    public void registrarPedido(Pedido pedido) {
+        registrar(PEDIDO, out -> EntityCodec.PADRAO.escreverPedido(out, pedido));
+    }
+
+    public void registrarPedidoFechado(Pedido pedido) {
+        registrar(PEDIDO_FECHADO, out -> EntityCodec.PADRAO.escreverPedido(out, pedido));
+    }
+
+    public void registrarPedidoRemovido(int numero) {
+        registrar(PEDIDO_REMOVIDO, out -> out.writeInt(numero));
+    }
+
+    public void registrarEntrega(Entrega entrega) {
+        registrar(ENTREGA, out -> EntityCodec.PADRAO.escreverEntrega(out, entrega));
+    }
+
+    // Espera ate que tudo o que foi registrado ate agora esteja no disco. Lanca UncheckedIOException se a
+    // gravacao falhou: os registros continuam na fila, mas nao estao duraveis.
+    public void sincronizar() {
+        if (arquivo == null) {
+            return;
+        }
+        long alvo;
+        synchronized (trava) {
+            alvo = registrados;
+        }
+        aguardar(alvo);
+    }
+
+    // Esvazia o journal depois que um snapshot completo foi salvo (ou apos zerarSistema).
+    public void truncar() {
+        if (arquivo == null) {
+            return;
+        }
+        FileChannel atual;
+        synchronized (trava) {
+            atual = tomarArquivo();
+            pendente.reset();
+            duraveis = registrados;
+            inicioArquivo = fimLogico;
+            falha = null;
+            validoNoArquivo = -1;
+            trava.notifyAll();
+        }
+        try {
+            if (atual != null) {
+                atual.truncate(0);
+                atual.force(true);
+            } else if (arquivo.exists()) {
+                arquivo.delete();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            devolverArquivo();
+        }
+    }
+
+    // Posicao do fim do journal agora; um checkpoint capturado neste instante cobre tudo ate aqui.
+    public long marca() {
+        synchronized (trava) {
+            return fimLogico;
+        }
+    }
+
+    // Descarta do arquivo os registros anteriores a marca, depois que um checkpoint com esse estado ficou duravel.
+    // Os registros posteriores sao copiados para um arquivo novo, trocado por rename atomico. A copia e o fsync
+    // acontecem fora da trava; o que for registrado enquanto isso espera em pendente e vai para o arquivo novo.
+    public void descartarAte(long marca) {
+        if (arquivo == null) {
+            return;
+        }
+        FileChannel atual;
+        long inicio;
+        long valido;
+        synchronized (trava) {
+            atual = tomarArquivo();
+            if (marca <= inicioArquivo) {
+                escrevendo = false;
+                trava.notifyAll();
+                return;
+            }
+            inicio = inicioArquivo;
+            valido = validoNoArquivo;
+        }
+        try {
+            long tamanho = atual != null ? atual.size() : valido >= 0 ? valido : arquivo.length();
+            long fimArquivo = inicio + tamanho;
+            if (marca >= fimArquivo) {
+                // O que ainda esta em memoria sera gravado normalmente; reaplicar registros ja cobertos nao muda nada.
+                if (atual != null) {
+                    atual.truncate(0);
+                    atual.force(true);
+                } else if (arquivo.exists()) {
+                    arquivo.delete();
+                }
+                synchronized (trava) {
+                    inicioArquivo = fimArquivo;
+                    validoNoArquivo = -1;
+                }
+                return;
+            }
+
+            ByteBuffer cauda = ByteBuffer.allocate((int) (fimArquivo - marca));
+            try (FileChannel leitura = FileChannel.open(arquivo.toPath(), StandardOpenOption.READ)) {
+                long posicao = marca - inicio;
+                while (cauda.hasRemaining()) {
+                    if (leitura.read(cauda, posicao + cauda.position()) < 0) {
+                        break;
+                    }
+                }
+            }
+            cauda.flip();
+            substituirArquivo(cauda);
+            // O canal antigo aponta para o arquivo substituido; o escritor abre o novo no proximo lote.
+            synchronized (trava) {
+                canal = null;
+                inicioArquivo = marca;
+                validoNoArquivo = -1;
+            }
+            if (atual != null) {
+                atual.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            devolverArquivo();
+        }
+    }
+
+    // Tira do arquivo os registros desses tipos, depois que as colecoes deles foram gravadas por inteiro nos
+    // arquivos (modo delta, com outras colecoes ainda so no journal). Chamar depois de sincronizar(): o que ainda
+    // esta em pendente fica como esta. As marcas anteriores deixam de cair em inicios de registro, entao isto
+    // nao se mistura com descartarAte (o modo delta nao roda com checkpoints).
+    public void descartarTipos(Set<Byte> tipos) {
+        if (arquivo == null) {
+            return;
+        }
+        FileChannel atual;
+        long valido;
+        synchronized (trava) {
+            atual = tomarArquivo();
+            valido = validoNoArquivo;
+        }
+        try {
+            if (atual == null && !arquivo.exists()) {
+                return;
+            }
+            long tamanho = atual != null ? atual.size() : valido >= 0 ? valido : arquivo.length();
+            Buffer mantidos = new Buffer();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(arquivo)))) {
+                long restante = tamanho;
+                while (restante >= 8) {
+                    int tamanhoRegistro = in.readInt();
+                    if (tamanhoRegistro <= 0 || tamanhoRegistro + 8L > restante) {
+                        break;
+                    }
+                    byte[] dados = new byte[tamanhoRegistro];
+                    in.readFully(dados);
+                    int verificador = in.readInt();
+                    if (!tipos.contains(dados[0])) {
+                        escreverInt(mantidos, tamanhoRegistro);
+                        mantidos.write(dados, 0, tamanhoRegistro);
+                        escreverInt(mantidos, verificador);
+                    }
+                    restante -= tamanhoRegistro + 8L;
+                }
+            }
+            if (mantidos.size() == tamanho) {
+                return;
+            }
+            substituirArquivo(ByteBuffer.wrap(mantidos.dados(), 0, mantidos.size()));
+            synchronized (trava) {
+                canal = null;
+                inicioArquivo += tamanho - mantidos.size();
+                validoNoArquivo = -1;
+            }
+            if (atual != null) {
+                atual.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            devolverArquivo();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (arquivo == null) {
+            return;
+        }
+        Thread thread;
+        synchronized (trava) {
+            fechado = true;
+            thread = escritor;
+            trava.notifyAll();
+        }
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (trava) {
+            while (escrevendo) {
+                esperar();
+            }
+        }
+        try {
+            if (canal != null) {
+                canal.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void registrar(byte tipo, Escrita escrita) {
+        if (arquivo == null) {
+            return;
+        }
+        long seq;
+        synchronized (trava) {
+            if (fechado) {
+                return;
+            }
+            registro.reset();
+            try {
+                saida.writeByte(tipo);
+                escrita.escrever(saida);
+                saida.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e); // ByteArrayOutputStream nao lanca IOException
+            }
+            crc.reset();
+            crc.update(registro.dados(), 0, registro.size());
+            escreverInt(pendente, registro.size());
+            pendente.write(registro.dados(), 0, registro.size());
+            escreverInt(pendente, (int) crc.getValue());
+            fimLogico += registro.size() + 8L;
+            seq = ++registrados;
+
+            if (escritor == null) {
+                escritor = new Thread(this::escrever, "myfood-journal");
+                escritor.setDaemon(true);
+                escritor.start();
+            }
+            trava.notifyAll();
+        }
+        if (sincrono) {
+            aguardar(seq);
+        }
+    }
+
+    private void aguardar(long seq) {
+        synchronized (trava) {
+            aguardando++;
+            try {
+                trava.notifyAll();
+                while (duraveis < seq && falha == null && !(fechado && escritor == null)) {
+                    esperar();
+                }
+                if (duraveis < seq && falha != null) {
+                    throw new UncheckedIOException("Journal nao gravado no disco", falha);
+                }
+            } finally {
+                aguardando--;
+            }
+        }
+    }
+
+    // Laco da thread escritora: junta o que chegou durante o intervalo e grava tudo com um so fsync.
+    private void escrever() {
+        while (true) {
+            long ate;
+            synchronized (trava) {
+                while ((pendente.size() == 0 && !fechado) || escrevendo) {
+                    esperar();
+                }
+                // Fechando com o disco falhando, o que sobrou fica sem gravar (quem espera ja recebeu a falha).
+                if (pendente.size() == 0 || (fechado && falha != null)) {
+                    escritor = null;
+                    trava.notifyAll();
+                    return;
+                }
+                long espera = falha != null ? ESPERA_APOS_FALHA : aguardando == 0 && !fechado ? intervalo : 0;
+                if (espera > 0) {
+                    try {
+                        trava.wait(espera);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    if (pendente.size() == 0 || escrevendo) {
+                        continue; // truncar() descartou o lote, ou pegou o arquivo, enquanto esperava
+                    }
+                }
+                Buffer lote = pendente;
+                pendente = gravando;
+                gravando = lote;
+                ate = registrados;
+                escrevendo = true;
+            }
+
+            IOException erro = gravarLote();
+
+            synchronized (trava) {
+                if (erro == null) {
+                    gravando.reset();
+                    duraveis = Math.max(duraveis, ate);
+                    falha = null;
+                } else {
+                    // O lote volta para a frente da fila, antes do que chegou durante a tentativa.
+                    if (falha == null) {
+                        erro.printStackTrace(); // so na primeira falha, nao a cada nova tentativa
+                    }
+                    Buffer novos = pendente;
+                    gravando.write(novos.dados(), 0, novos.size());
+                    pendente = gravando;
+                    novos.reset();
+                    gravando = novos;
+                    falha = erro;
+                }
+                escrevendo = false;
+                trava.notifyAll();
+            }
+        }
+    }
+
+    // Grava o lote e faz o fsync. Numa falha o arquivo volta ao tamanho de antes do lote, para que um registro
+    // pela metade nao fique na frente dos proximos (a reproducao pararia nele e perderia os seguintes).
+    private IOException gravarLote() {
+        long antes = -1;
+        try {
+            if (canal == null) {
+                canal = FileChannel.open(arquivo.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                if (validoNoArquivo >= 0) {
+                    canal.truncate(validoNoArquivo);
+                    validoNoArquivo = -1;
+                }
+                canal.position(canal.size());
+            }
+            antes = canal.position();
+            ByteBuffer bytes = ByteBuffer.wrap(gravando.dados(), 0, gravando.size());
+            while (bytes.hasRemaining()) {
+                canal.write(bytes);
+            }
+            canal.force(false);
+            return null;
+        } catch (IOException e) {
+            desfazer(antes);
+            return e;
+        }
+    }
+
+    private void desfazer(long antes) {
+        if (canal == null) {
+            return;
+        }
+        if (antes >= 0) {
+            try {
+                canal.truncate(antes);
+                canal.position(antes);
+                return;
+            } catch (IOException e) {
+                validoNoArquivo = antes; // cortado na proxima abertura
+            }
+        }
+        try {
+            canal.close();
+        } catch (IOException e) {
+            // o canal ja esta inutilizavel
+        }
+        canal = null;
+    }
+
+    // Grava o novo conteudo num temporario e troca o arquivo por rename atomico: numa queda, fica um ou outro.
+    private void substituirArquivo(ByteBuffer conteudo) throws IOException {
+        File temporario = new File(arquivo.getPath() + ".tmp");
+        try (FileChannel novo = FileChannel.open(temporario.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (conteudo.hasRemaining()) {
+                novo.write(conteudo);
+            }
+            novo.force(true);
+        }
+        Files.move(temporario.toPath(), arquivo.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Reserva o arquivo para quem chamou (com a trava) usar depois de solta-la: o escritor para de gravar e
+    // os registros novos se acumulam em pendente ate devolverArquivo().
+    private FileChannel tomarArquivo() {
+        while (escrevendo) {
+            esperar();
+        }
+        escrevendo = true;
+        return canal;
+    }
+
+    private void devolverArquivo() {
+        synchronized (trava) {
+            escrevendo = false;
+            trava.notifyAll();
+        }
+    }
+
+    private void esperar() {
+        try {
+            trava.wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void escreverInt(ByteArrayOutputStream out, int valor) {
+        out.write(valor >>> 24);
+        out.write(valor >>> 16);
+        out.write(valor >>> 8);
+        out.write(valor);
+    }
+}
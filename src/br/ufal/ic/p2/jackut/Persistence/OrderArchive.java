@@ -0,0 +1,170 @@
+package br.ufal.ic.p2.jackut.Persistence;
+
+import br.ufal.ic.p2.jackut.Entrega;
+import br.ufal.ic.p2.jackut.Pedido;
+
+import java.io.*;
+import java.util.*;
+
+// Historico em disco dos pedidos entregues e das suas entregas (tiering quente/frio).
+// Alem dos indices por id dos ColdStore, guarda as chaves usadas pelas consultas do Sistema:
+// os numeros dos pedidos de cada par (cliente, empresa) e a entrega de cada pedido. Esses mapas
+// sao alterados por requisicoes de empresas diferentes ao mesmo tempo, entao ficam sob o monitor do arquivo.
+public class OrderArchive implements Closeable {
+    private final ColdStore<Pedido> pedidos;
+    private final ColdStore<Entrega> entregas;
+    private final Map<Long, List<Integer>> pedidosPorPar = new HashMap<>();
+    private final Map<Integer, Integer> entregaPorPedido = new HashMap<>();
+
+    public OrderArchive(File diretorio, int capacidadeCache) throws IOException {
+        pedidos = new ColdStore<>(diretorio, "pedidos", 2, new ColdStore.Formato<>() {
+            public int id(Pedido pedido) {
+                return pedido.numero;
+            }
+
+            public int[] chaves(Pedido pedido) {
+                return new int[]{pedido.cliente, pedido.empresa};
+            }
+
+            public void escrever(DataOutput out, Pedido pedido) throws IOException {
+                EntityCodec.PADRAO.escreverPedido(out, pedido);
+            }
+
+            public Pedido ler(DataInput in) throws IOException {
+                return EntityCodec.PADRAO.lerPedido(in);
+            }
+        }, capacidadeCache);
+
+        entregas = new ColdStore<>(diretorio, "entregas", 1, new ColdStore.Formato<>() {
+            public int id(Entrega entrega) {
+                return entrega.id;
+            }
+
+            public int[] chaves(Entrega entrega) {
+                return new int[]{entrega.pedido == null ? -1 : entrega.pedido};
+            }
+
+            public void escrever(DataOutput out, Entrega entrega) throws IOException {
+                EntityCodec.PADRAO.escreverEntrega(out, entrega);
+            }
+
+            public Entrega ler(DataInput in) throws IOException {
+                return EntityCodec.PADRAO.lerEntrega(in);
+            }
+        }, capacidadeCache);
+
+        Map<Integer, Long> parDoPedido = new HashMap<>();
+        pedidos.abrir((removido, numero, chaves) -> {
+            if (removido) {
+                Long par = parDoPedido.remove(numero);
+                if (par != null) {
+                    pedidosPorPar.get(par).remove((Integer) numero);
+                }
+            } else if (!parDoPedido.containsKey(numero)) {
+                long par = par(chaves[0], chaves[1]);
+                parDoPedido.put(numero, par);
+                inserirOrdenado(pedidosPorPar.computeIfAbsent(par, k -> new ArrayList<>()), numero);
+            }
+        });
+
+        Map<Integer, Integer> pedidoDaEntrega = new HashMap<>();
+        entregas.abrir((removido, id, chaves) -> {
+            if (removido) {
+                Integer pedido = pedidoDaEntrega.remove(id);
+                if (pedido != null) {
+                    entregaPorPedido.remove(pedido, id);
+                }
+            } else {
+                pedidoDaEntrega.put(id, chaves[0]);
+                entregaPorPedido.putIfAbsent(chaves[0], id);
+            }
+        });
+    }
+
+    public synchronized void arquivar(Pedido pedido) throws IOException {
+        pedidos.gravar(pedido);
+        inserirOrdenado(pedidosPorPar.computeIfAbsent(par(pedido.cliente, pedido.empresa), k -> new ArrayList<>()), pedido.numero);
+    }
+
+    public synchronized void arquivar(Entrega entrega) throws IOException {
+        entregas.gravar(entrega);
+        if (entrega.pedido != null) {
+            entregaPorPedido.putIfAbsent(entrega.pedido, entrega.id);
+        }
+    }
+
+    // Tira o pedido do historico para que volte a ser alterado na lista quente.
+    public synchronized void desarquivar(Pedido pedido) throws IOException {
+        pedidos.remover(pedido.numero);
+        List<Integer> numeros = pedidosPorPar.get(par(pedido.cliente, pedido.empresa));
+        if (numeros != null) {
+            numeros.remove((Integer) pedido.numero);
+        }
+    }
+
+    public boolean contemPedido(int numero) {
+        return pedidos.contem(numero);
+    }
+
+    public boolean contemEntrega(int id) {
+        return entregas.contem(id);
+    }
+
+    public int maiorPedido() {
+        return pedidos.maiorId();
+    }
+
+    public int maiorEntrega() {
+        return entregas.maiorId();
+    }
+
+    public Pedido pedido(int numero) throws IOException {
+        return pedidos.ler(numero);
+    }
+
+    public Entrega entrega(int id) throws IOException {
+        return entregas.ler(id);
+    }
+
+    public synchronized Integer entregaDoPedido(int pedido) {
+        return entregaPorPedido.get(pedido);
+    }
+
+    // Numeros dos pedidos arquivados do par, em ordem crescente.
+    public synchronized List<Integer> pedidosDoPar(int cliente, int empresa) {
+        return new ArrayList<>(pedidosPorPar.getOrDefault(par(cliente, empresa), List.of()));
+    }
+
+    public void sincronizar() throws IOException {
+        pedidos.sincronizar();
+        entregas.sincronizar();
+    }
+
+    public synchronized void limpar() throws IOException {
+        pedidos.limpar();
+        entregas.limpar();
+        pedidosPorPar.clear();
+        entregaPorPedido.clear();
+    }
+
+    @Override
+    public void close() {
+        try {
+            pedidos.close();
+            entregas.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static long par(int cliente, int empresa) {
+        return ((long) cliente << 32) | (empresa & 0xFFFFFFFFL);
+    }
+
+    private static void inserirOrdenado(List<Integer> numeros, int numero) {
+        int posicao = Collections.binarySearch(numeros, numero);
+        if (posicao < 0) {
+            numeros.add(-posicao - 1, numero);
+        }
+    }
+}
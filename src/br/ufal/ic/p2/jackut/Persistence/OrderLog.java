@@ -0,0 +1,192 @@
+package br.ufal.ic.p2.jackut.Persistence;
+
+import br.ufal.ic.p2.jackut.Entrega;
+import br.ufal.ic.p2.jackut.Pedido;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.UnaryOperator;
+
+// Log dos pedidos (ou das entregas) em segmentos so de acrescimo, no lugar de pedidos.xml/entregas.xml.
+// Cada gravacao acrescenta, num lote atomico, so as entidades alteradas desde a anterior (cada mudanca de
+// estado de um pedido vira um registro novo) e as que sairam da lista. A chave de cada registro e a posicao
+// relativa da entidade na lista, para que a carga devolva a lista na mesma ordem. As versoes superadas
+// sao descartadas pela compactacao, na thread "myfood-compactacao".
+public class OrderLog<T> implements Closeable {
+    // Registros do proximo lote, ja copiados na thread que capturou o estado.
+    public static class Lote<T> {
+        final List<T> valores = new ArrayList<>();
+        final List<int[]> chaves = new ArrayList<>();
+        final List<Integer> removidos = new ArrayList<>();
+    }
+
+    private final ColdStore<T> registros;
+    private final ColdStore.Formato<T> formato;
+    // id -> posicao relativa na lista. Quem saiu da lista so sai daqui depois que a remocao foi gravada:
+    // se o lote falhar, o proximo preparar volta a incluir a remocao.
+    private final Map<Integer, Integer> ordem = new HashMap<>();
+    private int proximaOrdem;
+    private boolean aberto;
+    private final ExecutorService compactador = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "myfood-compactacao");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Future<?> compactacao;
+
+    public OrderLog(File diretorio, String prefixo, ColdStore.Formato<T> formato) {
+        this.formato = formato;
+        this.registros = new ColdStore<>(diretorio, prefixo, 1, formato, 0);
+    }
+
+    public static OrderLog<Pedido> pedidos(File diretorio) {
+        return new OrderLog<>(diretorio, "pedidos", new ColdStore.Formato<>() {
+            public int id(Pedido pedido) {
+                return pedido.numero;
+            }
+
+            public void escrever(DataOutput out, Pedido pedido) throws IOException {
+                EntityCodec.PADRAO.escreverPedido(out, pedido);
+            }
+
+            public Pedido ler(DataInput in) throws IOException {
+                return EntityCodec.PADRAO.lerPedido(in);
+            }
+        });
+    }
+
+    public static OrderLog<Entrega> entregas(File diretorio) {
+        return new OrderLog<>(diretorio, "entregas", new ColdStore.Formato<>() {
+            public int id(Entrega entrega) {
+                return entrega.id;
+            }
+
+            public void escrever(DataOutput out, Entrega entrega) throws IOException {
+                EntityCodec.PADRAO.escreverEntrega(out, entrega);
+            }
+
+            public Entrega ler(DataInput in) throws IOException {
+                return EntityCodec.PADRAO.lerEntrega(in);
+            }
+        });
+    }
+
+    public boolean existe() {
+        return registros.existe();
+    }
+
+    // As entidades validas do log, na ordem da lista.
+    public List<T> carregar() {
+        try {
+            abrir();
+            List<T> valores = registros.lerTodos();
+            valores.sort(Comparator.comparingInt(valor -> ordem.get(formato.id(valor))));
+            return valores;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return new ArrayList<>();
+        }
+    }
+
+    // Na thread das requisicoes: decide o que vai no proximo lote e copia essas entidades.
+    // Uma entidade sem posicao, ou com posicao que nao vem depois da anterior na lista (nova ou
+    // movida para o fim), recebe uma posicao nova e e regravada mesmo sem estar em alterados.
+    public synchronized Lote<T> preparar(List<T> lista, Set<Integer> alterados, UnaryOperator<T> copia) {
+        Lote<T> lote = new Lote<>();
+        Set<Integer> presentes = new HashSet<>();
+        int anterior = -1;
+        for (T valor : lista) {
+            int id = formato.id(valor);
+            presentes.add(id);
+            Integer posicao = ordem.get(id);
+            boolean regravar = alterados.contains(id);
+            if (posicao == null || posicao <= anterior) {
+                posicao = proximaOrdem++;
+                ordem.put(id, posicao);
+                regravar = true;
+            }
+            if (regravar) {
+                lote.valores.add(copia.apply(valor));
+                lote.chaves.add(new int[]{posicao});
+            }
+            anterior = posicao;
+        }
+
+        for (int id : ordem.keySet()) {
+            if (!presentes.contains(id)) {
+                lote.removidos.add(id);
+            }
+        }
+        return lote;
+    }
+
+    // Acrescenta o lote e faz o fsync; se algum segmento ficou com mais lixo do que dados, agenda a compactacao.
+    public void gravar(Lote<T> lote) throws IOException {
+        abrir();
+        if (!lote.valores.isEmpty() || !lote.removidos.isEmpty()) {
+            registros.gravarLote(lote.valores, lote.chaves, lote.removidos);
+            registros.sincronizar();
+            synchronized (this) {
+                ordem.keySet().removeAll(lote.removidos);
+            }
+        }
+        if ((compactacao == null || compactacao.isDone()) && registros.precisaCompactar()) {
+            compactacao = compactador.submit(() -> {
+                try {
+                    registros.compactar();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+        }
+    }
+
+    // Apaga o log (zerarSistema, ou troca de volta para o XML).
+    public void limpar() throws IOException {
+        aguardarCompactacao();
+        registros.limpar();
+        synchronized (this) {
+            ordem.clear();
+            proximaOrdem = 0;
+            aberto = false;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        aguardarCompactacao();
+        registros.close();
+    }
+
+    private synchronized void abrir() throws IOException {
+        if (aberto) {
+            return;
+        }
+        registros.abrir((removido, id, chaves) -> {
+            if (removido) {
+                ordem.remove(id);
+            } else {
+                ordem.put(id, chaves[0]);
+                proximaOrdem = Math.max(proximaOrdem, chaves[0] + 1);
+            }
+        });
+        aberto = true;
+    }
+
+    private void aguardarCompactacao() {
+        if (compactacao == null) {
+            return;
+        }
+        try {
+            compactacao.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package br.ufal.ic.p2.jackut.Persistence;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+// Carrega um arquivo XML dividindo-o em trechos que sao lidos em paralelo num ForkJoinPool.
+// Os cortes sempre caem no inicio de um elemento de primeiro nivel (<cliente>, <pedido>...),
+// entao cada trecho e um XML valido para o mesmo leitor usado na carga sequencial.
+// Os cortes sao achados nos bytes do arquivo e cada tarefa le e decodifica so o seu trecho,
+// entao o arquivo inteiro nunca fica na memoria de uma vez.
+// A ordem das entidades no resultado e a mesma do arquivo.
+public class ParallelLoader {
+    // Abaixo disso nao compensa dividir o arquivo.
+    private static final int TAMANHO_MINIMO_TRECHO = 1 << 18;
+    // Arquivos grandes viram mais trechos, para nenhum trecho (nem o texto dele) ficar grande demais.
+    private static final int TAMANHO_MAXIMO_TRECHO = 1 << 26;
+    // Quanto do arquivo e lido de cada vez procurando um corte.
+    private static final int JANELA = 1 << 16;
+
+    public interface LeitorDeTrecho<T> {
+        void ler(XMLScanner xml, List<T> out) throws IOException;
+    }
+
+    public static <T> List<T> carregar(String fileName, String[] elementos, LeitorDeTrecho<T> leitor) {
+        List<T> resultado = new ArrayList<>();
+        try (FileChannel canal = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            long[] cortes = cortes(canal, aberturas(elementos));
+            if (cortes.length == 2) {
+                leitor.ler(trecho(canal, cortes[0], cortes[1]), resultado);
+                return resultado;
+            }
+
+            List<ForkJoinTask<List<T>>> tarefas = new ArrayList<>();
+            for (int i = 0; i + 1 < cortes.length; i++) {
+                long de = cortes[i];
+                long ate = cortes[i + 1];
+                tarefas.add(ForkJoinPool.commonPool().submit(() -> {
+                    List<T> parcial = new ArrayList<>();
+                    leitor.ler(trecho(canal, de, ate), parcial);
+                    return parcial;
+                }));
+            }
+            for (ForkJoinTask<List<T>> tarefa : tarefas) {
+                resultado.addAll(tarefa.join());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return resultado;
+    }
+
+    // Le os bytes [de, ate) do arquivo e decodifica so eles. Leitura por posicao: as tarefas dividem o canal.
+    private static XMLScanner trecho(FileChannel canal, long de, long ate) throws IOException {
+        if (ate - de > Integer.MAX_VALUE - 8) {
+            throw new IOException("Trecho sem elemento de primeiro nivel grande demais: " + (ate - de) + " bytes");
+        }
+        ByteBuffer bytes = ByteBuffer.allocate((int) (ate - de));
+        while (bytes.hasRemaining()) {
+            if (canal.read(bytes, de + bytes.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        bytes.flip();
+        CharBuffer texto = StandardCharsets.UTF_8.decode(bytes);
+        return new XMLScanner(texto.array(), texto.arrayOffset() + texto.position(), texto.arrayOffset() + texto.limit());
+    }
+
+    // Posicoes [0, c1, c2, ..., tamanho]: divide o arquivo em partes de tamanho parecido
+    // e empurra cada corte ate a proxima abertura de um elemento de primeiro nivel.
+    private static long[] cortes(FileChannel canal, byte[][] aberturas) throws IOException {
+        long tamanho = canal.size();
+        long partes = Math.max(Math.min(ForkJoinPool.getCommonPoolParallelism() * 4, tamanho / TAMANHO_MINIMO_TRECHO),
+                (tamanho + TAMANHO_MAXIMO_TRECHO - 1) / TAMANHO_MAXIMO_TRECHO);
+        if (partes <= 1) {
+            return new long[]{0, tamanho};
+        }
+
+        long[] cortes = new long[(int) partes + 1];
+        int quantidade = 0;
+        cortes[quantidade++] = 0;
+        for (int i = 1; i < partes; i++) {
+            long corte = proximoElemento(canal, Math.max(tamanho / partes * i, cortes[quantidade - 1] + 1), tamanho, aberturas);
+            if (corte >= tamanho) {
+                break;
+            }
+            cortes[quantidade++] = corte;
+        }
+        cortes[quantidade++] = tamanho;
+
+        long[] exatos = new long[quantidade];
+        System.arraycopy(cortes, 0, exatos, 0, quantidade);
+        return exatos;
+    }
+
+    // "<elemento" em UTF-8 para cada elemento de primeiro nivel.
+    private static byte[][] aberturas(String[] elementos) {
+        byte[][] aberturas = new byte[elementos.length][];
+        for (int i = 0; i < elementos.length; i++) {
+            aberturas[i] = ("<" + elementos[i]).getBytes(StandardCharsets.UTF_8);
+        }
+        return aberturas;
+    }
+
+    // Procura nos bytes, janela por janela: em UTF-8 o byte de '<' nunca aparece dentro de outro caractere.
+    private static long proximoElemento(FileChannel canal, long pos, long fim, byte[][] aberturas) throws IOException {
+        int maior = 0;
+        for (byte[] abertura : aberturas) {
+            maior = Math.max(maior, abertura.length + 1);
+        }
+        ByteBuffer janela = ByteBuffer.allocate(Math.max(JANELA, maior * 2));
+        while (pos < fim) {
+            janela.clear();
+            while (janela.hasRemaining() && pos + janela.position() < fim) {
+                if (canal.read(janela, pos + janela.position()) < 0) {
+                    break;
+                }
+            }
+            int lidos = janela.position();
+            // Uma abertura que comeca no fim da janela fica para a proxima, a nao ser que o arquivo acabe aqui.
+            int ate = pos + lidos >= fim ? lidos : lidos - maior;
+            if (ate <= 0) {
+                return fim;
+            }
+            for (int i = 0; i < ate; i++) {
+                if (janela.get(i) != '<') {
+                    continue;
+                }
+                for (byte[] abertura : aberturas) {
+                    if (abre(janela, i, lidos, abertura)) {
+                        return pos + i;
+                    }
+                }
+            }
+            pos += ate;
+        }
+        return fim;
+    }
+
+    // Verifica se em janela[pos] comeca a tag de abertura <elemento> (ou <elemento ...>, <elemento/>).
+    private static boolean abre(ByteBuffer janela, int pos, int fim, byte[] abertura) {
+        int depois = pos + abertura.length;
+        if (depois >= fim) {
+            return false;
+        }
+        for (int i = 1; i < abertura.length; i++) {
+            if (janela.get(pos + i) != abertura[i]) {
+                return false;
+            }
+        }
+        char c = (char) janela.get(depois);
+        return c == '>' || c == '/' || Character.isWhitespace(c);
+    }
+}
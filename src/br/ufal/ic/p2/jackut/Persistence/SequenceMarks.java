@@ -0,0 +1,91 @@
+package br.ufal.ic.p2.jackut.Persistence;
+
+import br.ufal.ic.p2.jackut.Concurrency.IdSequence;
+import br.ufal.ic.p2.jackut.Entrega;
+import br.ufal.ic.p2.jackut.Enterprises.Enterprise;
+import br.ufal.ic.p2.jackut.Pedido;
+import br.ufal.ic.p2.jackut.Produto;
+import br.ufal.ic.p2.jackut.Users.User;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+// Marcas das sequencias de ids (myfood.sequencias.xml), gravadas junto com cada snapshot. Sem elas, a carga
+// so conheceria os ids das entidades que ainda estao nos arquivos, e um pedido removido teria o numero reusado.
+public class SequenceMarks {
+    private static final String[] NOMES = {"usuarios", "empresas", "produtos", "pedidos", "entregas"};
+    private static final IdSequence[] SEQUENCIAS = {User.IDS, Enterprise.IDS, Produto.NUMEROS, Pedido.NUMEROS, Entrega.IDS};
+
+    private final File arquivo;
+    private int[] salvas = new int[0];
+
+    public SequenceMarks(File arquivo) {
+        this.arquivo = arquivo;
+    }
+
+    // Nenhuma sequencia volta abaixo da marca salva.
+    public void carregar() {
+        if (!arquivo.exists()) {
+            return;
+        }
+        try (XMLScanner xml = XMLScanner.abrir(arquivo.getPath())) {
+            int evento;
+            while ((evento = xml.proximo()) != XMLScanner.FIM_ARQUIVO) {
+                if (evento != XMLScanner.INICIO) {
+                    continue;
+                }
+                for (int i = 0; i < NOMES.length; i++) {
+                    if (xml.eh(NOMES[i])) {
+                        SEQUENCIAS[i].avancarPara(xml.lerInt());
+                        break;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // As marcas atuais, lidas na thread que captura o snapshot.
+    public int[] capturar() {
+        int[] marcas = new int[SEQUENCIAS.length];
+        for (int i = 0; i < marcas.length; i++) {
+            marcas[i] = SEQUENCIAS[i].marca();
+        }
+        return marcas;
+    }
+
+    // So regrava o arquivo se alguma sequencia reservou outro bloco desde a ultima gravacao. Um checkpoint
+    // capturado antes de um salvarAlteracoes pode terminar depois dele, entao a marca gravada nunca diminui.
+    public synchronized void salvar(int[] capturadas) throws IOException {
+        int[] marcas = capturadas.clone();
+        for (int i = 0; i < salvas.length; i++) {
+            marcas[i] = Math.max(marcas[i], salvas[i]);
+        }
+        if (Arrays.equals(marcas, salvas)) {
+            return;
+        }
+        try (AtomicFileWriter saida = AtomicFileWriter.abrir(arquivo.getPath())) {
+            XMLWriter xml = new XMLWriter(saida);
+            xml.declaracao();
+            xml.abrir("sequencias");
+            for (int i = 0; i < NOMES.length; i++) {
+                xml.campo(NOMES[i], marcas[i]);
+            }
+            xml.fechar("sequencias");
+            xml.flush();
+            saida.concluir();
+        }
+        salvas = marcas;
+    }
+
+    // zerarSistema: as sequencias recomecam e o arquivo sai.
+    public synchronized void reiniciar() {
+        for (IdSequence sequencia : SEQUENCIAS) {
+            sequencia.reiniciar();
+        }
+        arquivo.delete();
+        salvas = new int[0];
+    }
+}
@@ -0,0 +1,282 @@
+package br.ufal.ic.p2.jackut.Persistence;
+
+import br.ufal.ic.p2.jackut.Enterprises.Enterprise;
+import br.ufal.ic.p2.jackut.Enterprises.Farmacia;
+import br.ufal.ic.p2.jackut.Enterprises.Mercado;
+import br.ufal.ic.p2.jackut.Enterprises.Restaurante;
+import br.ufal.ic.p2.jackut.Entrega;
+import br.ufal.ic.p2.jackut.EstadoPedido;
+import br.ufal.ic.p2.jackut.Pedido;
+import br.ufal.ic.p2.jackut.Produto;
+import br.ufal.ic.p2.jackut.Users.Cliente;
+import br.ufal.ic.p2.jackut.Users.Dono;
+import br.ufal.ic.p2.jackut.Users.Entregador;
+import br.ufal.ic.p2.jackut.Users.User;
+import br.ufal.ic.p2.jackut.XMLUtils;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+// Compara o carregador por XMLScanner com o antigo carregador linha a linha (regex por campo).
+// Uso: java br.ufal.ic.p2.jackut.Persistence.XMLLoaderBenchmark [pedidos] [rodadas]
+public class XMLLoaderBenchmark {
+    public static void main(String[] args) throws IOException {
+        int quantidadePedidos = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int rodadas = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        conferirEntidadeNaRecarga();
+
+        File dir = Files.createTempDirectory("myfood-bench").toFile();
+        String users = new File(dir, "users.xml").getPath();
+        String empresas = new File(dir, "empresas.xml").getPath();
+        String pedidos = new File(dir, "pedidos.xml").getPath();
+        String entregas = new File(dir, "entregas.xml").getPath();
+        gerarDados(quantidadePedidos, users, empresas, pedidos, entregas);
+
+        for (int i = 0; i < rodadas; i++) {
+            long antigo = System.nanoTime();
+            int totalAntigo = lerUsuariosLegado(users).size() + lerEmpresasLegado(empresas).size()
+                    + lerPedidosLegado(pedidos).size() + lerEntregasLegado(entregas).size();
+            antigo = System.nanoTime() - antigo;
+
+            long novo = System.nanoTime();
+            int totalNovo = XMLUtils.lerUsuarios(users).size() + XMLUtils.lerEmpresas(empresas).size()
+                    + XMLUtils.lerPedidos(pedidos).size() + XMLUtils.lerEntregas(entregas).size();
+            novo = System.nanoTime() - novo;
+
+            if (totalAntigo != totalNovo) {
+                throw new IllegalStateException("Carregadores divergem: " + totalAntigo + " != " + totalNovo);
+            }
+            System.out.printf("rodada %d: linha a linha %d ms, XMLScanner %d ms (%d registros)%n",
+                    i + 1, antigo / 1_000_000, novo / 1_000_000, totalNovo);
+        }
+
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    // Entidades cortadas pela recarga do buffer de 8 KiB do XMLScanner: o texto tem que sair inteiro em
+    // qualquer posicao do "&amp;" em volta da fronteira.
+    private static void conferirEntidadeNaRecarga() throws IOException {
+        for (int deslocamento = 8150; deslocamento < 8200; deslocamento++) {
+            String esperado = "x".repeat(deslocamento - "<nome>".length()) + "&fim";
+            String xml = "<nome>" + esperado.replace("&", "&amp;") + "</nome>";
+            try (XMLScanner scanner = new XMLScanner(new StringReader(xml))) {
+                scanner.proximo();
+                String lido = scanner.lerTexto();
+                if (!lido.equals(esperado)) {
+                    throw new IllegalStateException("Entidade em " + deslocamento + " lida errado: ..." + lido.substring(Math.max(0, lido.length() - 10)));
+                }
+            }
+        }
+    }
+
+    private static void gerarDados(int quantidadePedidos, String users, String empresas, String pedidos, String entregas) throws IOException {
+        List<User> listaUsers = new ArrayList<>();
+        List<Enterprise> listaEmpresas = new ArrayList<>();
+        List<Pedido> listaPedidos = new ArrayList<>();
+        List<Entrega> listaEntregas = new ArrayList<>();
+
+        int quantidadeEmpresas = Math.max(1, quantidadePedidos / 100);
+        for (int i = 0; i < quantidadePedidos / 10; i++) {
+            listaUsers.add(new Cliente("Cliente " + i, "cliente" + i + "@ufal.com.br", "123senha", "Rua Exemplo N " + i));
+        }
+        for (int i = 0; i < quantidadeEmpresas; i++) {
+            Enterprise empresa = switch (i % 3) {
+                case 0 -> new Restaurante("Restaurante " + i, "Rua Segura N " + i, "brasileira", 0);
+                case 1 -> new Mercado(0, "Mercado " + i, "Rua Segura N " + i, "07:30", "21:00", "supermercado");
+                default -> new Farmacia(0, "Farmacia " + i, "Rua Segura N " + i, true, 3);
+            };
+            for (int j = 0; j < 20; j++) {
+                empresa.produtos.add(new Produto("Produto " + j, 1.25f + j, "categoria"));
+            }
+            listaEmpresas.add(empresa);
+        }
+        for (int i = 0; i < quantidadePedidos; i++) {
+            Enterprise empresa = listaEmpresas.get(i % quantidadeEmpresas);
+            Pedido pedido = new Pedido(i % 1000, empresa.id);
+            pedido.produtos.add(empresa.produtos.get(i % 20));
+            pedido.produtos.add(empresa.produtos.get((i + 7) % 20));
+            listaPedidos.add(pedido);
+            if (i % 2 == 0) {
+                ArrayList<String> nomes = new ArrayList<>();
+                nomes.add(pedido.produtos.get(0).nome);
+                listaEntregas.add(new Entrega("Cliente", empresa.nome, pedido.numero, 1, "Rua Exemplo N 1", nomes));
+            }
+        }
+
+        XMLUtils.salvarUsuarios(listaUsers, users);
+        XMLUtils.salvarEmpresas(listaEmpresas, empresas);
+        XMLUtils.salvarPedidos(listaPedidos, pedidos);
+        XMLUtils.salvarEntregas(listaEntregas, entregas);
+    }
+
+    // Carregadores anteriores ao XMLScanner, mantidos apenas como referencia de desempenho.
+
+    private static List<User> lerUsuariosLegado(String fileName) throws IOException {
+        List<User> usuarios = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
+            String line;
+            User usuario = null;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.startsWith("<cliente>")) {
+                    usuario = new Cliente("", null, null, null);
+                } else if (line.startsWith("<dono>")) {
+                    usuario = new Dono("", null, null, null, null);
+                } else if (line.startsWith("<entregador>")) {
+                    usuario = new Entregador("", null, null, null, null, null);
+                } else if (line.startsWith("<id>")) {
+                    usuario.id = Integer.parseInt(line.replaceAll("<.*?>", ""));
+                } else if (line.startsWith("<nome>")) {
+                    usuario.nome = line.replaceAll("<.*?>", "");
+                } else if (line.startsWith("<email>")) {
+                    usuario.email = line.replaceAll("<.*?>", "");
+                } else if (line.startsWith("<senha>")) {
+                    usuario.senha = line.replaceAll("<.*?>", "");
+                } else if (usuario != null && line.startsWith("<endereco>")) {
+                    usuario.endereco = line.replaceAll("<.*?>", "");
+                } else if (usuario != null && usuario.isWhatType().equals("Dono") && line.startsWith("<cpf>")) {
+                    ((Dono) usuario).cpf = line.replaceAll("<.*?>", "");
+                } else if (line.startsWith("</cliente>") || line.startsWith("</dono>") || line.startsWith("</entregador>")) {
+                    usuarios.add(usuario);
+                }
+            }
+        }
+        return usuarios;
+    }
+
+    private static List<Enterprise> lerEmpresasLegado(String fileName) throws IOException {
+        List<Enterprise> empresas = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
+            String line;
+            Enterprise empresa = null;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.startsWith("<mercado>")) {
+                    empresa = new Mercado(0, null, null, null, null, null);
+                } else if (line.startsWith("<farmacia>")) {
+                    empresa = new Farmacia(0, null, null, null, null);
+                } else if (line.startsWith("<restaurante>")) {
+                    empresa = new Restaurante(null, null, null, 0);
+                } else if (line.startsWith("<id>")) {
+                    empresa.id = Integer.parseInt(line.replaceAll("<.*?>", ""));
+                } else if (line.startsWith("<idDono>")) {
+                    empresa.idDono = Integer.parseInt(line.replaceAll("<.*?>", ""));
+                } else if (line.startsWith("<nome>")) {
+                    empresa.nome = line.replaceAll("<.*?>", "");
+                } else if (line.startsWith("<endereco>")) {
+                    empresa.endereco = line.replaceAll("<.*?>", "");
+                } else if (empresa != null && line.startsWith("<produtos>")) {
+                    List<Produto> produtos = new ArrayList<>();
+                    while (!(line = reader.readLine().trim()).startsWith("</produtos>")) {
+                        if (line.startsWith("<produto>")) {
+                            Produto produto = new Produto("", 0, "");
+                            while (!(line = reader.readLine().trim()).startsWith("</produto>")) {
+                                if (line.startsWith("<numero>")) {
+                                    produto.numero = Integer.parseInt(line.replaceAll("<.*?>", ""));
+                                } else if (line.startsWith("<nome>")) {
+                                    produto.nome = line.replaceAll("<.*?>", "");
+                                } else if (line.startsWith("<valor>")) {
+                                    produto.valor = Float.parseFloat(line.replaceAll("<.*?>", ""));
+                                } else if (line.startsWith("<categoria>")) {
+                                    produto.categoria = line.replaceAll("<.*?>", "");
+                                }
+                            }
+                            produtos.add(produto);
+                        }
+                    }
+                    empresa.produtos = produtos;
+                } else if (line.startsWith("</mercado>") || line.startsWith("</farmacia>") || line.startsWith("</restaurante>")) {
+                    empresas.add(empresa);
+                }
+            }
+        }
+        return empresas;
+    }
+
+    private static List<Pedido> lerPedidosLegado(String fileName) throws IOException {
+        List<Pedido> pedidos = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
+            String line;
+            Pedido pedido = null;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.startsWith("<pedido>")) {
+                    pedido = new Pedido(0, 0);
+                } else if (line.startsWith("<id>")) {
+                    pedido.numero = Integer.parseInt(line.replaceAll("<.*?>", ""));
+                } else if (line.startsWith("<idCliente>")) {
+                    pedido.cliente = Integer.parseInt(line.replaceAll("<.*?>", ""));
+                } else if (line.startsWith("<idRestaurante>")) {
+                    pedido.empresa = Integer.parseInt(line.replaceAll("<.*?>", ""));
+                } else if (line.startsWith("<estado>")) {
+                    pedido.estado = EstadoPedido.de(line.replaceAll("<.*?>", ""));
+                } else if (line.startsWith("<produtos>")) {
+                    ArrayList<Produto> produtos = new ArrayList<>();
+                    while (!(line = reader.readLine().trim()).startsWith("</produtos>")) {
+                        if (line.startsWith("<produto>")) {
+                            Produto produto = new Produto(null, 0, null);
+                            while (!(line = reader.readLine().trim()).startsWith("</produto>")) {
+                                if (line.startsWith("<numero>")) {
+                                    produto.numero = Integer.parseInt(line.replaceAll("<.*?>", ""));
+                                } else if (line.startsWith("<nome>")) {
+                                    produto.nome = line.replaceAll("<.*?>", "");
+                                } else if (line.startsWith("<valor>")) {
+                                    produto.valor = Float.parseFloat(line.replaceAll("<.*?>", ""));
+                                } else if (line.startsWith("<categoria>")) {
+                                    produto.categoria = line.replaceAll("<.*?>", "");
+                                }
+                            }
+                            produtos.add(produto);
+                        }
+                    }
+                    pedido.produtos = produtos;
+                } else if (line.startsWith("</pedido>")) {
+                    pedidos.add(pedido);
+                }
+            }
+        }
+        return pedidos;
+    }
+
+    private static List<Entrega> lerEntregasLegado(String fileName) throws IOException {
+        List<Entrega> entregas = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
+            String line;
+            Entrega entrega = null;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.startsWith("<entrega>")) {
+                    entrega = new Entrega(null, null, null, null, null, null);
+                } else if (entrega != null && line.startsWith("<id>")) {
+                    entrega.id = Integer.parseInt(line.replaceAll("<.*?>", ""));
+                } else if (entrega != null && line.startsWith("<cliente>")) {
+                    entrega.cliente = line.replaceAll("<.*?>", "");
+                } else if (entrega != null && line.startsWith("<empresa>")) {
+                    entrega.empresa = line.replaceAll("<.*?>", "");
+                } else if (entrega != null && line.startsWith("<pedido>")) {
+                    entrega.pedido = Integer.parseInt(line.replaceAll("<.*?>", ""));
+                } else if (entrega != null && line.startsWith("<entregador>")) {
+                    entrega.entregador = Integer.parseInt(line.replaceAll("<.*?>", ""));
+                } else if (entrega != null && line.startsWith("<destino>")) {
+                    entrega.destino = line.replaceAll("<.*?>", "");
+                } else if (entrega != null && line.startsWith("<produtos>")) {
+                    ArrayList<String> produtos = new ArrayList<>();
+                    while (!(line = reader.readLine().trim()).startsWith("</produtos>")) {
+                        if (line.startsWith("<produto>")) {
+                            produtos.add(line.replaceAll("<.*?>", ""));
+                        }
+                    }
+                    entrega.produtos = produtos;
+                } else if (entrega != null && line.startsWith("</entrega>")) {
+                    entregas.add(entrega);
+                }
+            }
+        }
+        return entregas;
+    }
+}
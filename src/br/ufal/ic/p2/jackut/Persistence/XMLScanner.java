@@ -0,0 +1,376 @@
+package br.ufal.ic.p2.jackut.Persistence;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Tokenizador de XML em passada unica (cursor no estilo StAX) sobre um buffer de chars.
+// Nao usa regex nem cria uma String por linha: nomes de tag sao comparados direto no buffer
+// e numeros sao convertidos sem String intermediaria. As tags nao precisam estar uma por linha.
+public class XMLScanner implements Closeable {
+    public static final int FIM_ARQUIVO = -1;
+    public static final int INICIO = 1;
+    public static final int FIM = 2;
+
+    private static final float[] POTENCIAS_DE_DEZ = {1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+
+    private final Reader reader;
+    private char[] buf;
+    private int pos;
+    private int lim;
+    private int marca = -1; // inicio do trecho que ainda nao pode ser descartado do buffer
+    private int nomeIni;
+    private int nomeFim;
+    private boolean fechamentoPendente; // tag auto-fechada: <produtos/>
+
+    public XMLScanner(Reader reader) {
+        this.reader = reader;
+        this.buf = new char[8192];
+    }
+
+    // Le apenas o trecho buf[ini, fim) de um buffer ja carregado em memoria.
+    public XMLScanner(char[] buf, int ini, int fim) {
+        this.reader = null;
+        this.buf = buf;
+        this.pos = ini;
+        this.lim = fim;
+    }
+
+    public static XMLScanner abrir(String fileName) throws IOException {
+        return new XMLScanner(new InputStreamReader(new FileInputStream(fileName), StandardCharsets.UTF_8));
+    }
+
+    // Avanca ate a proxima tag de abertura ou fechamento, ignorando o texto entre elas.
+    public int proximo() throws IOException {
+        if (fechamentoPendente) {
+            fechamentoPendente = false;
+            return FIM;
+        }
+        while (true) {
+            marca = -1;
+            while (true) {
+                if (!disponivel()) {
+                    return FIM_ARQUIVO;
+                }
+                if (buf[pos] == '<') {
+                    break;
+                }
+                pos++;
+            }
+
+            marca = pos++;
+            char c = obrigatorio();
+            if (c == '?' || c == '!') {
+                pularDeclaracao();
+                continue;
+            }
+
+            boolean fechamento = c == '/';
+            if (fechamento) {
+                pos++;
+            }
+            nomeIni = pos;
+            while (true) {
+                char ch = obrigatorio();
+                if (ch == '>' || ch == '/' || Character.isWhitespace(ch)) {
+                    break;
+                }
+                pos++;
+            }
+            nomeFim = pos;
+
+            // Pula atributos; o ultimo char antes de '>' indica tag auto-fechada.
+            char anterior = 0;
+            while (true) {
+                char ch = obrigatorio();
+                pos++;
+                if (ch == '>') {
+                    break;
+                }
+                anterior = ch;
+            }
+            marca = -1;
+
+            if (!fechamento && anterior == '/') {
+                fechamentoPendente = true;
+            }
+            return fechamento ? FIM : INICIO;
+        }
+    }
+
+    // Compara o nome da tag atual sem alocar.
+    public boolean eh(String nome) {
+        int tamanho = nomeFim - nomeIni;
+        if (tamanho != nome.length()) {
+            return false;
+        }
+        for (int i = 0; i < tamanho; i++) {
+            if (buf[nomeIni + i] != nome.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public String nome() {
+        return new String(buf, nomeIni, nomeFim - nomeIni);
+    }
+
+    // Conteudo textual do elemento atual, com as entidades XML decodificadas.
+    public String lerTexto() throws IOException {
+        if (fechamentoPendente) {
+            return "";
+        }
+        marca = pos;
+        StringBuilder sb = null;
+        while (disponivel()) {
+            char c = buf[pos];
+            if (c == '<') {
+                break;
+            }
+            if (c == '&') {
+                if (sb == null) {
+                    sb = new StringBuilder();
+                }
+                sb.append(buf, marca, pos - marca);
+                sb.appendCodePoint(lerEntidade());
+                marca = pos;
+                continue;
+            }
+            pos++;
+        }
+
+        String texto;
+        if (sb == null) {
+            texto = new String(buf, marca, pos - marca);
+        } else {
+            sb.append(buf, marca, pos - marca);
+            texto = sb.toString();
+        }
+        marca = -1;
+        return texto;
+    }
+
+    public int lerInt() throws IOException {
+        if (fechamentoPendente) {
+            throw new NumberFormatException("For input string: \"\"");
+        }
+        marca = pos;
+        pularEspacos();
+        boolean negativo = false;
+        if (disponivel() && (buf[pos] == '-' || buf[pos] == '+')) {
+            negativo = buf[pos] == '-';
+            pos++;
+        }
+
+        long valor = 0;
+        int digitos = 0;
+        while (disponivel()) {
+            char c = buf[pos];
+            if (c < '0' || c > '9') {
+                break;
+            }
+            valor = valor * 10 + (c - '0');
+            if (valor > (long) Integer.MAX_VALUE + 1) {
+                break;
+            }
+            pos++;
+            digitos++;
+        }
+        pularEspacos();
+
+        if (negativo) {
+            valor = -valor;
+        }
+        if (digitos == 0 || (disponivel() && buf[pos] != '<') || valor > Integer.MAX_VALUE || valor < Integer.MIN_VALUE) {
+            pos = marca;
+            throw new NumberFormatException("For input string: \"" + lerTexto().trim() + "\"");
+        }
+        marca = -1;
+        return (int) valor;
+    }
+
+    // Caminho rapido para precos: mantissa com ate 7 digitos e ate 10 casas decimais
+    // e convertida com uma unica divisao em float, o que da o mesmo arredondamento de Float.parseFloat.
+    // Qualquer outra forma (expoente, NaN, muitos digitos) cai em Float.parseFloat.
+    public float lerFloat() throws IOException {
+        if (fechamentoPendente) {
+            throw new NumberFormatException("empty String");
+        }
+        marca = pos;
+        pularEspacos();
+        boolean negativo = false;
+        if (disponivel() && (buf[pos] == '-' || buf[pos] == '+')) {
+            negativo = buf[pos] == '-';
+            pos++;
+        }
+
+        int mantissa = 0;
+        int digitos = 0;
+        int casas = 0;
+        boolean ponto = false;
+        boolean rapido = true;
+        while (disponivel()) {
+            char c = buf[pos];
+            if (c >= '0' && c <= '9') {
+                int proxima = mantissa * 10 + (c - '0');
+                if (proxima > (1 << 24)) {
+                    rapido = false;
+                    break;
+                }
+                mantissa = proxima;
+                digitos++;
+                if (ponto) {
+                    casas++;
+                }
+            } else if (c == '.' && !ponto) {
+                ponto = true;
+            } else {
+                break;
+            }
+            pos++;
+        }
+        pularEspacos();
+
+        if (!rapido || digitos == 0 || casas >= POTENCIAS_DE_DEZ.length || (disponivel() && buf[pos] != '<')) {
+            pos = marca;
+            return Float.parseFloat(lerTexto().trim());
+        }
+        marca = -1;
+        float valor = mantissa / POTENCIAS_DE_DEZ[casas];
+        return negativo ? -valor : valor;
+    }
+
+    // Mesma semantica de Boolean.parseBoolean: apenas "true" (sem diferenciar maiusculas) e verdadeiro.
+    public boolean lerBoolean() throws IOException {
+        if (fechamentoPendente) {
+            return false;
+        }
+        marca = pos;
+        int tamanho = 0;
+        boolean verdadeiro = true;
+        while (disponivel()) {
+            char c = buf[pos];
+            if (c == '<') {
+                break;
+            }
+            if (tamanho >= 4 || Character.toLowerCase(c) != "true".charAt(tamanho)) {
+                verdadeiro = false;
+            }
+            tamanho++;
+            pos++;
+        }
+        marca = -1;
+        return verdadeiro && tamanho == 4;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (reader != null) {
+            reader.close();
+        }
+    }
+
+    private void pularEspacos() throws IOException {
+        while (disponivel() && Character.isWhitespace(buf[pos])) {
+            pos++;
+        }
+    }
+
+    private void pularDeclaracao() throws IOException {
+        boolean comentario = proximosSao("!--");
+        int tracos = 0;
+        while (true) {
+            char c = obrigatorio();
+            pos++;
+            if (c == '>' && (!comentario || tracos >= 2)) {
+                return;
+            }
+            tracos = c == '-' ? tracos + 1 : 0;
+        }
+    }
+
+    private boolean proximosSao(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            if (!disponivel(i + 1) || buf[pos + i] != s.charAt(i)) {
+                return false;
+            }
+        }
+        pos += s.length();
+        return true;
+    }
+
+    // A entidade comeca na marca: se a recarga compactar o buffer, o inicio dela anda junto com pos.
+    private int lerEntidade() throws IOException {
+        marca = pos;
+        pos++;
+        while (true) {
+            char c = obrigatorio();
+            pos++;
+            if (c == ';') {
+                break;
+            }
+            if (pos - marca > 12) {
+                throw new IOException("Entidade XML invalida");
+            }
+        }
+        String entidade = new String(buf, marca + 1, pos - marca - 2);
+        switch (entidade) {
+            case "lt":
+                return '<';
+            case "gt":
+                return '>';
+            case "amp":
+                return '&';
+            case "quot":
+                return '"';
+            case "apos":
+                return '\'';
+        }
+        if (entidade.startsWith("#x")) {
+            return Integer.parseInt(entidade.substring(2), 16);
+        } else if (entidade.startsWith("#")) {
+            return Integer.parseInt(entidade.substring(1));
+        }
+        throw new IOException("Entidade XML desconhecida: " + entidade);
+    }
+
+    private char obrigatorio() throws IOException {
+        if (!disponivel()) {
+            throw new EOFException("Fim inesperado do XML");
+        }
+        return buf[pos];
+    }
+
+    private boolean disponivel() throws IOException {
+        return disponivel(1);
+    }
+
+    // Garante n chars a partir de pos, preservando o trecho a partir da marca.
+    private boolean disponivel(int n) throws IOException {
+        while (pos + n > lim) {
+            if (reader == null) {
+                return false;
+            }
+            int inicio = marca >= 0 ? marca : pos;
+            if (inicio > 0) {
+                System.arraycopy(buf, inicio, buf, 0, lim - inicio);
+                pos -= inicio;
+                lim -= inicio;
+                nomeIni -= inicio;
+                nomeFim -= inicio;
+                if (marca >= 0) {
+                    marca -= inicio;
+                }
+            } else if (lim == buf.length) {
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            }
+            int lidos = reader.read(buf, lim, buf.length - lim);
+            if (lidos < 0) {
+                return false;
+            }
+            lim += lidos;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,215 @@
+package br.ufal.ic.p2.jackut.Persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+
+// Codificador de XML sobre um buffer de chars, par do XMLScanner na escrita.
+// Tags, textos (com escape), ints e floats sao copiados direto para o buffer, sem montar
+// uma String temporaria por campo. A indentacao acompanha o nivel das tags abertas (4 espacos).
+public class XMLWriter implements Closeable {
+    private static final float[] POTENCIAS_DE_DEZ = {1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f};
+
+    private final Writer destino;
+    private final char[] buf;
+    private int pos;
+    private int nivel;
+
+    public XMLWriter(Writer destino) {
+        this(destino, 1 << 16);
+    }
+
+    public XMLWriter(Writer destino, int tamanhoBuffer) {
+        this.destino = destino;
+        this.buf = new char[tamanhoBuffer];
+    }
+
+    public void declaracao() throws IOException {
+        escreverBruto("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    }
+
+    public void abrir(String tag) throws IOException {
+        indentar();
+        escreverChar('<');
+        escreverBruto(tag);
+        escreverBruto(">\n");
+        nivel++;
+    }
+
+    public void fechar(String tag) throws IOException {
+        nivel--;
+        indentar();
+        escreverBruto("</");
+        escreverBruto(tag);
+        escreverBruto(">\n");
+    }
+
+    // Campos nulos saem como "null", do mesmo jeito que a concatenacao de Strings gravava antes.
+    public void campo(String tag, String valor) throws IOException {
+        inicioCampo(tag);
+        if (valor == null) {
+            escreverBruto("null");
+        } else {
+            escreverEscapado(valor);
+        }
+        fimCampo(tag);
+    }
+
+    public void campo(String tag, int valor) throws IOException {
+        inicioCampo(tag);
+        escreverInt(valor);
+        fimCampo(tag);
+    }
+
+    public void campo(String tag, Integer valor) throws IOException {
+        if (valor == null) {
+            campo(tag, (String) null);
+        } else {
+            campo(tag, valor.intValue());
+        }
+    }
+
+    public void campo(String tag, Boolean valor) throws IOException {
+        inicioCampo(tag);
+        escreverBruto(valor == null ? "null" : valor ? "true" : "false");
+        fimCampo(tag);
+    }
+
+    public void campo(String tag, float valor) throws IOException {
+        inicioCampo(tag);
+        escreverFloat(valor);
+        fimCampo(tag);
+    }
+
+    public void flush() throws IOException {
+        destino.write(buf, 0, pos);
+        pos = 0;
+        destino.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        destino.close();
+    }
+
+    private void inicioCampo(String tag) throws IOException {
+        indentar();
+        escreverChar('<');
+        escreverBruto(tag);
+        escreverChar('>');
+    }
+
+    private void fimCampo(String tag) throws IOException {
+        escreverBruto("</");
+        escreverBruto(tag);
+        escreverBruto(">\n");
+    }
+
+    private void indentar() throws IOException {
+        for (int i = 0; i < nivel; i++) {
+            escreverBruto("    ");
+        }
+    }
+
+    private void escreverEscapado(String texto) throws IOException {
+        int tamanho = texto.length();
+        for (int i = 0; i < tamanho; i++) {
+            char c = texto.charAt(i);
+            switch (c) {
+                case '&' -> escreverBruto("&amp;");
+                case '<' -> escreverBruto("&lt;");
+                case '>' -> escreverBruto("&gt;");
+                default -> escreverChar(c);
+            }
+        }
+    }
+
+    private void escreverInt(int valor) throws IOException {
+        if (valor == Integer.MIN_VALUE) {
+            escreverBruto(Integer.toString(valor));
+            return;
+        }
+        if (valor < 0) {
+            escreverChar('-');
+            valor = -valor;
+        }
+        garantir(10);
+        int fim = pos + tamanhoDecimal(valor);
+        for (int i = fim - 1; i >= pos; i--) {
+            buf[i] = (char) ('0' + valor % 10);
+            valor /= 10;
+        }
+        pos = fim;
+    }
+
+    // Precos costumam ter poucas casas: se um inteiro m com d casas reproduz o float exatamente
+    // (a mesma conta que o XMLScanner.lerFloat faz na leitura), grava m com o ponto no lugar.
+    // O formato e o de Float.toString ("10.0", "1.4"); os demais valores usam Float.toString.
+    private void escreverFloat(float valor) throws IOException {
+        if ((valor > 0 || Float.floatToRawIntBits(valor) == 0) && valor < (1 << 24)) {
+            for (int casas = 0; casas < POTENCIAS_DE_DEZ.length; casas++) {
+                long mantissa = (long) Math.rint((double) valor * POTENCIAS_DE_DEZ[casas]);
+                if (mantissa > (1 << 24) || mantissa / POTENCIAS_DE_DEZ[casas] != valor) {
+                    continue;
+                }
+                if (valor >= 1e7f || (valor != 0 && valor < 1e-3f)) {
+                    break; // Float.toString usaria notacao cientifica
+                }
+                int inteiro = (int) (mantissa / (long) POTENCIAS_DE_DEZ[casas]);
+                int fracao = (int) (mantissa % (long) POTENCIAS_DE_DEZ[casas]);
+                escreverInt(inteiro);
+                escreverChar('.');
+                if (casas == 0) {
+                    escreverChar('0');
+                } else {
+                    garantir(casas);
+                    for (int i = pos + casas - 1; i >= pos; i--) {
+                        buf[i] = (char) ('0' + fracao % 10);
+                        fracao /= 10;
+                    }
+                    pos += casas;
+                }
+                return;
+            }
+        }
+        escreverBruto(Float.toString(valor));
+    }
+
+    private static int tamanhoDecimal(int valor) {
+        int digitos = 1;
+        while (valor >= 10) {
+            valor /= 10;
+            digitos++;
+        }
+        return digitos;
+    }
+
+    private void escreverBruto(String texto) throws IOException {
+        int tamanho = texto.length();
+        if (tamanho > buf.length) {
+            descarregar();
+            destino.write(texto);
+            return;
+        }
+        garantir(tamanho);
+        texto.getChars(0, tamanho, buf, pos);
+        pos += tamanho;
+    }
+
+    private void escreverChar(char c) throws IOException {
+        garantir(1);
+        buf[pos++] = c;
+    }
+
+    private void garantir(int espaco) throws IOException {
+        if (pos + espaco > buf.length) {
+            descarregar();
+        }
+    }
+
+    private void descarregar() throws IOException {
+        destino.write(buf, 0, pos);
+        pos = 0;
+    }
+}
@@ -1,16 +1,27 @@
 package br.ufal.ic.p2.jackut;
 
-public class Produto {
-    private static int contador = 0;
+import br.ufal.ic.p2.jackut.Concurrency.IdSequence;
+
+public class Produto implements Cloneable {
+    public static final IdSequence NUMEROS = new IdSequence(0);
     public int numero;
     public String nome;
     public float valor;
     public String categoria;
 
     public Produto(String nome, float valor, String categoria) {
-        this.numero = contador++;
+        this.numero = NUMEROS.proximo();
         this.nome = nome;
         this.valor = valor;
         this.categoria = categoria;
     }
+
+    // Copia sem passar pelo construtor, para nao consumir um numero novo.
+    public Produto copia() {
+        try {
+            return (Produto) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+    }
 }
@@ -0,0 +1,91 @@
+package br.ufal.ic.p2.jackut.Server;
+
+import br.ufal.ic.p2.jackut.Configuracao;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Cliente do FacadeServer para testes locais.
+// Uso: java br.ufal.ic.p2.jackut.Server.FacadeClient [porta] [sessoes]
+// Sem sessoes, manda cada linha da entrada padrao e imprime a resposta. Com sessoes, abre essa quantidade
+// de conexoes ao mesmo tempo, cada uma cadastrando e consultando um cliente, e imprime o tempo total.
+// A carga cadastra usuarios no sistema do servidor: use um servidor rodando num diretorio vazio.
+public class FacadeClient implements AutoCloseable {
+    private final Socket conexao;
+    private final BufferedReader entrada;
+    private final Writer saida;
+
+    public FacadeClient(int porta) throws IOException {
+        this.conexao = new Socket(InetAddress.getLoopbackAddress(), porta);
+        this.entrada = new BufferedReader(new InputStreamReader(conexao.getInputStream(), StandardCharsets.UTF_8));
+        this.saida = new BufferedWriter(new OutputStreamWriter(conexao.getOutputStream(), StandardCharsets.UTF_8));
+    }
+
+    public static void main(String[] args) throws Exception {
+        int porta = args.length > 0 ? Integer.parseInt(args[0]) : Configuracao.PORTA;
+        if (args.length > 1) {
+            carga(porta, Integer.parseInt(args[1]));
+            return;
+        }
+        try (FacadeClient cliente = new FacadeClient(porta);
+             BufferedReader comandos = new BufferedReader(new InputStreamReader(System.in))) {
+            String linha;
+            while ((linha = comandos.readLine()) != null) {
+                if (!linha.isBlank()) {
+                    System.out.println(cliente.enviar(linha));
+                }
+            }
+        }
+    }
+
+    // Manda um comando e espera a resposta ("OK ..." ou "ERRO ...").
+    public String enviar(String comando) throws IOException {
+        saida.write(comando);
+        saida.write('\n');
+        saida.flush();
+        String resposta = entrada.readLine();
+        if (resposta == null) {
+            throw new EOFException("Conexao encerrada pelo servidor");
+        }
+        return resposta;
+    }
+
+    @Override
+    public void close() throws IOException {
+        conexao.close();
+    }
+
+    private static void carga(int porta, int sessoes) throws InterruptedException {
+        String rodada = Long.toString(System.currentTimeMillis(), 36);
+        AtomicInteger erros = new AtomicInteger();
+        long inicio = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int s = 0; s < sessoes; s++) {
+                String email = "c" + s + "." + rodada + "@carga";
+                executor.submit(() -> {
+                    try (FacadeClient cliente = new FacadeClient(porta)) {
+                        esperarOK(cliente.enviar("criarUsuario nome=\"Cliente " + email + "\" email=" + email + " senha=senha123 endereco=\"Rua Carga\""));
+                        String id = esperarOK(cliente.enviar("login email=" + email + " senha=senha123"));
+                        esperarOK(cliente.enviar("getAtributoUsuario id=" + id + " atributo=email"));
+                    } catch (IOException | IllegalStateException e) {
+                        erros.incrementAndGet();
+                    }
+                });
+            }
+        }
+        long tempo = System.nanoTime() - inicio;
+        System.out.printf("%d sessoes em %d ms, %d com erro%n", sessoes, tempo / 1_000_000, erros.get());
+    }
+
+    private static String esperarOK(String resposta) {
+        if (!resposta.startsWith("OK")) {
+            throw new IllegalStateException(resposta);
+        }
+        return resposta.length() > 3 ? resposta.substring(3) : "";
+    }
+}
@@ -0,0 +1,215 @@
+package br.ufal.ic.p2.jackut.Server;
+
+import br.ufal.ic.p2.jackut.Configuracao;
+import br.ufal.ic.p2.jackut.Facade;
+
+import java.io.*;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Servidor de linhas sobre a Facade, so em localhost. Cada linha e um comando como nos scripts de teste:
+// o nome do metodo e os argumentos na ordem, com ou sem "nome=" e entre aspas quando tem espacos
+// (criarUsuario nome="Ana Maria" email=ana@x senha=123 endereco="Rua A"). Cada resposta e uma linha:
+// "OK", "OK <valor>" quando o metodo devolve algo, ou "ERRO <mensagem>" com a mensagem da excecao.
+// Quebras de linha no valor saem como \n. "sair" fecha a conexao; linhas vazias sao ignoradas.
+// Cada conexao roda numa thread virtual, entao dezenas de milhares de sessoes abertas custam pouco.
+// Os comandos de uma conexao sao respondidos na ordem; para paralelismo, o cliente abre mais conexoes.
+// Uso: java br.ufal.ic.p2.jackut.Server.FacadeServer [porta]
+public class FacadeServer implements AutoCloseable {
+    private static final int FILA_CONEXOES = 4096;
+
+    private final Facade facade;
+    private final ServerSocket servidor;
+    private final ExecutorService sessoes = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<String, List<Method>> metodos = new HashMap<>();
+
+    public FacadeServer(Facade facade, int porta) throws IOException {
+        this.facade = facade;
+        this.servidor = new ServerSocket(porta, FILA_CONEXOES, InetAddress.getLoopbackAddress());
+        for (Method metodo : Facade.class.getDeclaredMethods()) {
+            if (Modifier.isPublic(metodo.getModifiers())) {
+                metodos.computeIfAbsent(metodo.getName(), k -> new ArrayList<>()).add(metodo);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int porta = args.length > 0 ? Integer.parseInt(args[0]) : Configuracao.PORTA;
+        Facade facade = new Facade();
+        FacadeServer servidor = new FacadeServer(facade, porta);
+        // As alteracoes ja estao no journal, que o proprio Sistema fecha na saida; aqui so param as conexoes.
+        Runtime.getRuntime().addShutdownHook(new Thread(servidor::close));
+        System.out.println("Atendendo em localhost:" + servidor.porta());
+        servidor.atender();
+    }
+
+    public int porta() {
+        return servidor.getLocalPort();
+    }
+
+    // Aceita conexoes ate close().
+    public void atender() {
+        while (!servidor.isClosed()) {
+            Socket conexao;
+            try {
+                conexao = servidor.accept();
+            } catch (IOException e) {
+                if (!servidor.isClosed()) {
+                    e.printStackTrace();
+                }
+                continue;
+            }
+            sessoes.submit(() -> sessao(conexao));
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            servidor.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        sessoes.shutdownNow();
+    }
+
+    private void sessao(Socket conexao) {
+        try (conexao;
+             BufferedReader entrada = new BufferedReader(new InputStreamReader(conexao.getInputStream(), StandardCharsets.UTF_8));
+             Writer saida = new BufferedWriter(new OutputStreamWriter(conexao.getOutputStream(), StandardCharsets.UTF_8))) {
+            String linha;
+            while ((linha = entrada.readLine()) != null) {
+                linha = linha.strip();
+                if (linha.isEmpty()) {
+                    continue;
+                }
+                if (linha.equals("sair")) {
+                    break;
+                }
+                saida.write(executar(linha));
+                saida.write('\n');
+                // Comandos mandados em sequencia sem esperar a resposta saem juntos num so envio.
+                if (!entrada.ready()) {
+                    saida.flush();
+                }
+            }
+        } catch (IOException e) {
+            // conexao derrubada pelo cliente
+        }
+    }
+
+    String executar(String linha) {
+        List<String> partes;
+        try {
+            partes = separar(linha);
+        } catch (IllegalArgumentException e) {
+            return "ERRO " + e.getMessage();
+        }
+        String nome = partes.get(0);
+        List<String> argumentos = partes.subList(1, partes.size());
+        List<Method> candidatos = metodos.get(nome);
+        if (candidatos == null) {
+            return "ERRO Comando desconhecido: " + nome;
+        }
+        // As sobrecargas da Facade (criarUsuario, criarEmpresa) tem quantidades diferentes de parametros.
+        for (Method metodo : candidatos) {
+            Object[] valores = converter(metodo.getParameterTypes(), argumentos);
+            if (valores == null) {
+                continue;
+            }
+            try {
+                Object resultado = metodo.invoke(facade, valores);
+                return metodo.getReturnType() == void.class ? "OK" : "OK " + escapar(String.valueOf(resultado));
+            } catch (InvocationTargetException e) {
+                return "ERRO " + escapar(String.valueOf(e.getCause().getMessage()));
+            } catch (IllegalAccessException e) {
+                return "ERRO " + escapar(e.getMessage());
+            }
+        }
+        return "ERRO Argumentos invalidos para " + nome;
+    }
+
+    // Separa o comando dos argumentos. Fora das aspas, o que vem antes do primeiro "=" e o nome do argumento
+    // e e descartado; dentro delas, \ escapa o caractere seguinte.
+    static List<String> separar(String linha) {
+        List<String> partes = new ArrayList<>();
+        int i = 0;
+        while (i < linha.length()) {
+            if (Character.isWhitespace(linha.charAt(i))) {
+                i++;
+                continue;
+            }
+            StringBuilder valor = new StringBuilder();
+            boolean aspas = false;
+            boolean comNome = partes.isEmpty();
+            while (i < linha.length() && (aspas || !Character.isWhitespace(linha.charAt(i)))) {
+                char c = linha.charAt(i++);
+                if (c == '"') {
+                    aspas = !aspas;
+                    comNome = true;
+                } else if (aspas && c == '\\' && i < linha.length()) {
+                    valor.append(linha.charAt(i++));
+                } else if (!aspas && !comNome && c == '=') {
+                    valor.setLength(0);
+                    comNome = true;
+                } else {
+                    valor.append(c);
+                }
+            }
+            if (aspas) {
+                throw new IllegalArgumentException("Aspas sem fechamento");
+            }
+            partes.add(valor.toString());
+        }
+        if (partes.isEmpty()) {
+            throw new IllegalArgumentException("Comando vazio");
+        }
+        return partes;
+    }
+
+    // null se os argumentos nao servem para esses parametros.
+    private static Object[] converter(Class<?>[] tipos, List<String> argumentos) {
+        if (tipos.length != argumentos.size()) {
+            return null;
+        }
+        Object[] valores = new Object[tipos.length];
+        try {
+            for (int i = 0; i < tipos.length; i++) {
+                valores[i] = converter(tipos[i], argumentos.get(i));
+            }
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        return valores;
+    }
+
+    private static Object converter(Class<?> tipo, String texto) {
+        if (tipo == String.class) {
+            return texto;
+        } else if (tipo == int.class) {
+            return Integer.parseInt(texto);
+        } else if (tipo == Integer.class) {
+            return texto.isEmpty() ? null : Integer.valueOf(texto);
+        } else if (tipo == float.class) {
+            return Float.parseFloat(texto);
+        } else if (tipo == Boolean.class && (texto.equals("true") || texto.equals("false"))) {
+            return Boolean.valueOf(texto);
+        }
+        throw new IllegalArgumentException("Tipo nao suportado: " + tipo.getName());
+    }
+
+    private static String escapar(String texto) {
+        return texto.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r");
+    }
+}
@@ -1,5 +1,7 @@
 package br.ufal.ic.p2.jackut;
 
+import br.ufal.ic.p2.jackut.Concurrency.SingleWriter;
+import br.ufal.ic.p2.jackut.Concurrency.StripedLocks;
 import br.ufal.ic.p2.jackut.Enterprises.Enterprise;
 import br.ufal.ic.p2.jackut.Enterprises.Farmacia;
 import br.ufal.ic.p2.jackut.Enterprises.Mercado;
@@ -9,136 +11,1080 @@ import br.ufal.ic.p2.jackut.Exceptions.Enterprise.*;
 import br.ufal.ic.p2.jackut.Exceptions.Invalid.*;
 import br.ufal.ic.p2.jackut.Exceptions.Orders.*;
 import br.ufal.ic.p2.jackut.Exceptions.Products.*;
+import br.ufal.ic.p2.jackut.Indexes.CourierRoster;
+import br.ufal.ic.p2.jackut.Indexes.DispatchQueues;
+import br.ufal.ic.p2.jackut.Indexes.EnterpriseNameIndex;
+import br.ufal.ic.p2.jackut.Indexes.IntMap;
+import br.ufal.ic.p2.jackut.Indexes.OrderPairIndex;
+import br.ufal.ic.p2.jackut.Indexes.PositionIndex;
 import br.ufal.ic.p2.jackut.Users.Cliente;
 import br.ufal.ic.p2.jackut.Users.Dono;
 import br.ufal.ic.p2.jackut.Users.Entregador;
 import br.ufal.ic.p2.jackut.Users.User;
 
+import br.ufal.ic.p2.jackut.Persistence.BinarySnapshot;
+import br.ufal.ic.p2.jackut.Persistence.CatalogShards;
+import br.ufal.ic.p2.jackut.Persistence.Checkpointer;
+import br.ufal.ic.p2.jackut.Persistence.DirtyTracker;
+import br.ufal.ic.p2.jackut.Persistence.DirtyTracker.Colecao;
+import br.ufal.ic.p2.jackut.Persistence.EntityCodec;
+import br.ufal.ic.p2.jackut.Persistence.Journal;
+import br.ufal.ic.p2.jackut.Persistence.OrderArchive;
+import br.ufal.ic.p2.jackut.Persistence.OrderLog;
+import br.ufal.ic.p2.jackut.Persistence.SequenceMarks;
+
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.IOException;
 import java.util.*;
-
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+// As secoes de StripedLocks sao abertas em try-with-resources so para soltar as travas no fim; a variavel nunca e usada.
+@SuppressWarnings("try")
 public class Sistema {
     private static Sistema instance;
     List<User> users;
     List<Enterprise> empresas;
     List<Pedido> pedidos;
     List<Entrega> entregas;
+    Journal journal;
+    Checkpointer checkpointer;
+    // Pedidos entregues e as suas entregas, fora do heap (myfood.tiering). null com o tiering desligado.
+    OrderArchive historico;
+    CatalogShards catalogo = new CatalogShards(new File("myfood.empresas"));
+    OrderLog<Pedido> logPedidos = OrderLog.pedidos(new File("myfood.log"));
+    OrderLog<Entrega> logEntregas = OrderLog.entregas(new File("myfood.log"));
+    DirtyTracker alteracoes = new DirtyTracker();
+    SequenceMarks sequencias = new SequenceMarks(new File("myfood.sequencias.xml"));
+
+    // Indices primarios por id, mantidos junto com as listas (a ordem continua sendo a das listas).
+    IntMap<User> usersPorId = new IntMap<>();
+    IntMap<Enterprise> empresasPorId = new IntMap<>();
+    IntMap<Pedido> pedidosPorNumero = new IntMap<>();
+    IntMap<Entrega> entregasPorId = new IntMap<>();
+    IntMap<Entrega> entregaPorPedido = new IntMap<>(); // a primeira entrega de cada pedido, na ordem da lista
+    // Indices unicos: email de qualquer usuario e placa dos entregadores.
+    Map<String, User> usersPorEmail = new HashMap<>();
+    Map<String, Entregador> entregadoresPorPlaca = new HashMap<>();
+    EnterpriseNameIndex empresasPorNome = new EnterpriseNameIndex();
+    // Empresas de cada dono, na ordem da lista, e o texto de getEmpresasDoUsuario ja montado
+    // (descartado quando o dono cadastra outra empresa; nome e endereco nao mudam).
+    IntMap<List<Enterprise>> empresasPorDono = new IntMap<>();
+    IntMap<String> empresasDoUsuarioTexto = new IntMap<>();
+    // Todos os produtos do catalogo pelo numero, com a empresa de cada um.
+    IntMap<Produto> produtosPorNumero = new IntMap<>();
+    IntMap<Enterprise> empresaDoProduto = new IntMap<>();
+    OrderPairIndex pedidosPorPar = new OrderPairIndex();
+    DispatchQueues despacho = new DispatchQueues();
+    CourierRoster entregadoresEEmpresas = new CourierRoster();
+    // Posicao de cada entidade nas listas e produtos de cada empresa pelo numero, so enquanto o journal
+    // e reaplicado (null fora disso).
+    private PositionIndex<User> usersReproduzidos;
+    private PositionIndex<Enterprise> empresasReproduzidas;
+    private PositionIndex<Pedido> pedidosReproduzidos;
+    private PositionIndex<Entrega> entregasReproduzidas;
+    private IntMap<IntMap<Produto>> produtosReproduzidos;
+    // Pedidos que ja estavam fechados no estado carregado: o fechamento deles ja esta na posicao da lista.
+    private IntMap<Pedido> fechadosNaCarga;
+
+    // Travas das requisicoes concorrentes (faixas por empresa, ver StripedLocks). As listas e
+    // os indices de pedidos e entregas sao de todas as empresas, entao cada acesso a eles e uma secao curta
+    // sob "tabelas"; usuarios, empresas e produtos so mudam em secoes exclusivas e sao lidos sem ela.
+    StripedLocks travas = new StripedLocks(Configuracao.FAIXAS, this::capturarPendente);
+    private final ReentrantReadWriteLock tabelas = new ReentrantReadWriteLock();
+    // Checkpoint pedido dentro de uma secao compartilhada: e capturado quando a thread solta as travas.
+    private final AtomicBoolean checkpointPendente = new AtomicBoolean();
+    // Thread unica das alteracoes (myfood.escritor.unico). null com o modo desligado.
+    private SingleWriter escritor;
+
+    // Duracao (ns) de cada fase da inicializacao, na ordem em que terminaram.
+    Map<String, Long> temposCarga = Collections.synchronizedMap(new LinkedHashMap<>());
 
     private Sistema() {
-        File usersFile = new File("users.xml");
-        File empresasFile = new File("empresas.xml");
-        File pedidosFile = new File("pedidos.xml");
-        File entregasFile = new File("entregas.xml");
-
-        if (usersFile.exists()) {
-            users = XMLUtils.lerUsuarios("users.xml");
+        long inicio = System.nanoTime();
+        File snapshotFile = new File("myfood.snapshot");
+        if (Configuracao.SNAPSHOT_BINARIO && snapshotFile.exists()) {
+            long fase = System.nanoTime();
+            try {
+                BinarySnapshot.Dados dados = BinarySnapshot.carregar(snapshotFile);
+                users = dados.users;
+                empresas = dados.empresas;
+                pedidos = dados.pedidos;
+                entregas = dados.entregas;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            temposCarga.put("myfood.snapshot", System.nanoTime() - fase);
+        }
+        if (users == null) {
+            medir("xml", () -> {
+                carregarXML();
+                return null;
+            });
+        }
+
+        if (Configuracao.JOURNAL) {
+            journal = new Journal(new File("myfood.journal"), Configuracao.JOURNAL_INTERVALO, Configuracao.JOURNAL_SINCRONO);
+            medir("journal", () -> {
+                try {
+                    reproduzirJournal();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                return null;
+            });
+            Runtime.getRuntime().addShutdownHook(new Thread(journal::close));
         } else {
-            users = new ArrayList<>();
+            journal = Journal.desativado();
+        }
+        reindexar();
+        if (Configuracao.TIERING) {
+            long fase = System.nanoTime();
+            try {
+                historico = new OrderArchive(new File("myfood.historico"), Configuracao.TIERING_CACHE);
+                arquivarEntregues();
+                Runtime.getRuntime().addShutdownHook(new Thread(historico::close));
+            } catch (IOException e) {
+                e.printStackTrace();
+                historico = null;
+            }
+            temposCarga.put("myfood.historico", System.nanoTime() - fase);
+        }
+        restaurarSequencias();
+        if (Configuracao.CHECKPOINT) {
+            checkpointer = new Checkpointer(Configuracao.CHECKPOINT_ALTERACOES, Configuracao.CHECKPOINT_INTERVALO);
+        }
+        if (Configuracao.ESCRITOR_UNICO) {
+            escritor = new SingleWriter(Configuracao.ESCRITOR_FILA, Configuracao.ESCRITOR_LOTE, journal::sincronizar);
         }
 
-        if (empresasFile.exists()) {
-            empresas = XMLUtils.lerEmpresas("empresas.xml");
-        } else {
-            empresas = new ArrayList<>();
+        temposCarga.put("total", System.nanoTime() - inicio);
+        if (Configuracao.TEMPOS) {
+            temposCarga.forEach((fase, tempo) -> System.err.printf("[myfood] carga %s: %.1f ms%n", fase, tempo / 1e6));
         }
+    }
 
-        if (pedidosFile.exists()) {
-            pedidos = XMLUtils.lerPedidos("pedidos.xml");
-        } else {
-            pedidos = new ArrayList<>();
+    // Os quatro arquivos sao lidos ao mesmo tempo no ForkJoinPool comum, e cada um ainda e dividido
+    // em trechos paralelos pelo ParallelLoader. Sem snapshot binario o estado vem daqui
+    // (os XML tambem servem de migracao para o formato binario).
+    private void carregarXML() {
+        CompletableFuture<List<User>> usersCarga = carregarAsync("users.xml", XMLUtils::lerUsuarios);
+        CompletableFuture<List<Enterprise>> empresasCarga = catalogo.existe()
+                ? CompletableFuture.supplyAsync(() -> medir("myfood.empresas", catalogo::carregar))
+                : carregarAsync("empresas.xml", XMLUtils::lerEmpresas);
+        CompletableFuture<List<Pedido>> pedidosCarga = logPedidos.existe()
+                ? CompletableFuture.supplyAsync(() -> medir("myfood.log/pedidos", logPedidos::carregar))
+                : carregarAsync("pedidos.xml", XMLUtils::lerPedidos);
+        CompletableFuture<List<Entrega>> entregasCarga = logEntregas.existe()
+                ? CompletableFuture.supplyAsync(() -> medir("myfood.log/entregas", logEntregas::carregar))
+                : carregarAsync("entregas.xml", XMLUtils::lerEntregas);
+
+        users = usersCarga.join();
+        empresas = empresasCarga.join();
+        pedidos = pedidosCarga.join();
+        entregas = entregasCarga.join();
+
+        // Trocou o layout do catalogo (myfood.catalogos.divididos): a primeira gravacao reescreve todas as empresas.
+        if (Configuracao.CATALOGO_DIVIDIDO != catalogo.existe()) {
+            for (Enterprise empresa : empresas) {
+                alteracoes.marcar(Colecao.EMPRESAS, empresa.id);
+            }
         }
+        // O mesmo para o log de pedidos (myfood.pedidos.log).
+        if (Configuracao.LOG_PEDIDOS != logPedidos.existe()) {
+            for (Pedido pedido : pedidos) {
+                alteracoes.marcar(Colecao.PEDIDOS, pedido.numero);
+            }
+        }
+        if (Configuracao.LOG_PEDIDOS != logEntregas.existe()) {
+            for (Entrega entrega : entregas) {
+                alteracoes.marcar(Colecao.ENTREGAS, entrega.id);
+            }
+        }
+    }
 
-        if (entregasFile.exists()) {
-            entregas = XMLUtils.lerEntregas("entregas.xml");
-        } else {
-            entregas = new ArrayList<>();
+    // Depois da carga, do journal e da abertura do historico: as sequencias de ids continuam da marca salva
+    // ou do maior id carregado, o que for maior.
+    private void restaurarSequencias() {
+        sequencias.carregar();
+        int maiorUsuario = -1;
+        for (User user : users) {
+            maiorUsuario = Math.max(maiorUsuario, user.id);
+        }
+        int maiorEmpresa = -1;
+        int maiorProduto = -1;
+        for (Enterprise empresa : empresas) {
+            maiorEmpresa = Math.max(maiorEmpresa, empresa.id);
+            for (Produto produto : empresa.produtos) {
+                maiorProduto = Math.max(maiorProduto, produto.numero);
+            }
+        }
+        int maiorPedido = historico != null ? historico.maiorPedido() : -1;
+        for (Pedido pedido : pedidos) {
+            maiorPedido = Math.max(maiorPedido, pedido.numero);
+        }
+        int maiorEntrega = historico != null ? historico.maiorEntrega() : -1;
+        for (Entrega entrega : entregas) {
+            maiorEntrega = Math.max(maiorEntrega, entrega.id);
+        }
+        User.IDS.avancarPara(maiorUsuario + 1);
+        Enterprise.IDS.avancarPara(maiorEmpresa + 1);
+        Produto.NUMEROS.avancarPara(maiorProduto + 1);
+        Pedido.NUMEROS.avancarPara(maiorPedido + 1);
+        Entrega.IDS.avancarPara(maiorEntrega + 1);
+    }
+
+    // Reconstroi os indices a partir das listas (depois da carga e do journal).
+    private void reindexar() {
+        usersPorId.limpar();
+        usersPorEmail.clear();
+        entregadoresPorPlaca.clear();
+        empresasPorId.limpar();
+        empresasPorNome.limpar();
+        empresasPorDono.limpar();
+        empresasDoUsuarioTexto.limpar();
+        produtosPorNumero.limpar();
+        empresaDoProduto.limpar();
+        pedidosPorNumero.limpar();
+        pedidosPorPar.limpar();
+        despacho.limpar();
+        entregasPorId.limpar();
+        entregaPorPedido.limpar();
+        entregadoresEEmpresas.limpar();
+        for (User user : users) {
+            indexar(user);
+        }
+        for (Enterprise empresa : empresas) {
+            indexar(empresa);
+        }
+        // Cada lado na ordem da sua lista; ids repetidos de dados antigos entram uma vez so.
+        for (Enterprise empresa : empresas) {
+            for (Integer id : empresa.entregadores) {
+                User user = usersPorId.buscar(id);
+                if (user != null && user.isWhatType().equals("Entregador")) {
+                    entregadoresEEmpresas.adicionarEntregador(empresa.id, (Entregador) user);
+                }
+            }
+        }
+        for (User user : users) {
+            if (user.isWhatType().equals("Entregador")) {
+                for (Integer id : ((Entregador) user).empresas) {
+                    Enterprise empresa = empresasPorId.buscar(id);
+                    if (empresa != null) {
+                        entregadoresEEmpresas.adicionarEmpresa(user.id, empresa);
+                    }
+                }
+            }
+        }
+        for (Pedido pedido : pedidos) {
+            pedidosPorNumero.colocarSeAusente(pedido.numero, pedido);
+            pedidosPorPar.adicionar(pedido);
+            despacho.adicionar(pedido);
+        }
+        for (Entrega entrega : entregas) {
+            indexar(entrega);
+        }
+    }
+
+    private void indexar(User user) {
+        usersPorId.colocarSeAusente(user.id, user);
+        usersPorEmail.putIfAbsent(user.email, user);
+        if (user.isWhatType().equals("Entregador") && ((Entregador) user).placa != null) {
+            entregadoresPorPlaca.putIfAbsent(((Entregador) user).placa, (Entregador) user);
+        }
+    }
+
+    private void indexar(Enterprise empresa) {
+        empresasPorId.colocarSeAusente(empresa.id, empresa);
+        empresasPorNome.adicionar(empresa.id, empresa.nome, empresa.endereco, empresa.idDono);
+        List<Enterprise> doDono = empresasPorDono.buscar(empresa.idDono);
+        if (doDono == null) {
+            doDono = new ArrayList<>();
+            empresasPorDono.colocar(empresa.idDono, doDono);
+        }
+        doDono.add(empresa);
+        empresasDoUsuarioTexto.remover(empresa.idDono);
+        for (Produto produto : empresa.produtos) {
+            indexar(empresa, produto);
+        }
+    }
+
+    private void indexar(Enterprise empresa, Produto produto) {
+        if (produtosPorNumero.colocarSeAusente(produto.numero, produto) == null) {
+            empresaDoProduto.colocar(produto.numero, empresa);
+        }
+    }
+
+    private void indexar(Entrega entrega) {
+        entregasPorId.colocarSeAusente(entrega.id, entrega);
+        if (entrega.pedido != null) {
+            entregaPorPedido.colocarSeAusente(entrega.pedido, entrega);
+        }
+    }
+
+    // Fora da carga e do journal, a lista de pedidos so muda por estes dois, para os indices acompanharem.
+    private void adicionarPedido(Pedido pedido) {
+        tabelas.writeLock().lock();
+        try {
+            pedidos.add(pedido);
+            pedidosPorNumero.colocar(pedido.numero, pedido);
+            pedidosPorPar.adicionar(pedido);
+            despacho.adicionar(pedido);
+        } finally {
+            tabelas.writeLock().unlock();
+        }
+    }
+
+    private void retirarPedido(Pedido pedido) {
+        tabelas.writeLock().lock();
+        try {
+            pedidos.remove(pedido);
+            pedidosPorNumero.remover(pedido.numero);
+            pedidosPorPar.remover(pedido);
+            despacho.remover(pedido);
+        } finally {
+            tabelas.writeLock().unlock();
         }
     }
 
-    static Sistema getInstance() {
+    // fecharPedido: o pedido vai para o fim da lista numa troca so, sem sumir dos indices no meio dela.
+    private void moverParaOFim(Pedido pedido) {
+        tabelas.writeLock().lock();
+        try {
+            pedidos.remove(pedido);
+            pedidos.add(pedido);
+            pedidosPorPar.remover(pedido);
+            pedidosPorPar.adicionar(pedido);
+            despacho.remover(pedido);
+            despacho.adicionar(pedido);
+        } finally {
+            tabelas.writeLock().unlock();
+        }
+    }
+
+    // Depois de uma mudanca de estado do pedido; le o estado atual, entao a ultima chamada sempre acerta a fila.
+    private void atualizarDespacho(Pedido pedido) {
+        tabelas.writeLock().lock();
+        try {
+            despacho.atualizar(pedido);
+        } finally {
+            tabelas.writeLock().unlock();
+        }
+    }
+
+    private void adicionarEntrega(Entrega entrega) {
+        tabelas.writeLock().lock();
+        try {
+            entregas.add(entrega);
+            indexar(entrega);
+        } finally {
+            tabelas.writeLock().unlock();
+        }
+    }
+
+    // O pedido da lista quente, sem olhar o historico. null se nao existir.
+    private Pedido pedidoQuente(int numero) {
+        tabelas.readLock().lock();
+        try {
+            return pedidosPorNumero.buscar(numero);
+        } finally {
+            tabelas.readLock().unlock();
+        }
+    }
+
+    private Pedido pedidoAberto(int cliente, int empresa) {
+        tabelas.readLock().lock();
+        try {
+            return pedidosPorPar.aberto(cliente, empresa);
+        } finally {
+            tabelas.readLock().unlock();
+        }
+    }
+
+    // A empresa do pedido, so para escolher a faixa; com ela travada, o pedido e buscado de novo.
+    private int empresaDoPedido(Integer numero) {
+        Pedido pedido = numero != null ? buscarPedido(numero) : null;
+        return pedido != null ? pedido.empresa : -1;
+    }
+
+    private <T> CompletableFuture<List<T>> carregarAsync(String fileName, Function<String, List<T>> leitor) {
+        if (!new File(fileName).exists()) {
+            return CompletableFuture.completedFuture(new ArrayList<>());
+        }
+        return CompletableFuture.supplyAsync(() -> medir(fileName, () -> leitor.apply(fileName)));
+    }
+
+    private <T> T medir(String fase, Supplier<T> acao) {
+        long inicio = System.nanoTime();
+        T resultado = acao.get();
+        temposCarga.put(fase, System.nanoTime() - inicio);
+        return resultado;
+    }
+
+    static synchronized Sistema getInstance() {
         if (instance == null) {
             instance = new Sistema();
         }
         return instance;
     }
 
+    // Entrada das operacoes que alteram o sistema (a Facade passa todas por aqui). Com o escritor unico, a
+    // operacao roda na thread dele e so volta depois que o journal do seu lote esta no disco; as consultas
+    // continuam direto, em paralelo. Sem ele, roda na thread de quem chamou.
+    public <T> T escrever(SingleWriter.Operacao<T> operacao) {
+        return escritor != null ? escritor.executar(operacao) : SingleWriter.executarAqui(operacao);
+    }
+
+    public void escrever(SingleWriter.Acao acao) {
+        escrever(() -> {
+            acao.executar();
+            return null;
+        });
+    }
+
     public void encerrarSistema() {
-        XMLUtils.salvarUsuarios(users, "users.xml");
-        XMLUtils.salvarPedidos(pedidos, "pedidos.xml");
-        XMLUtils.salvarEmpresas(empresas, "empresas.xml");
-        XMLUtils.salvarEntregas(entregas, "entregas.xml");
+        try (StripedLocks.Secao secao = travas.exclusiva()) {
+            salvarAlteracoes();
+        }
+    }
+
+    // Reescreve apenas os arquivos das colecoes que mudaram desde o ultimo snapshot.
+    // No modo delta (myfood.delta), uma colecao com poucas entidades alteradas nao e reescrita:
+    // as alteracoes continuam no journal, que so e esvaziado quando tudo foi gravado nos arquivos.
+    public void salvarAlteracoes() {
+        try (StripedLocks.Secao secao = travas.exclusiva()) {
+            if (checkpointer != null) {
+                // Com o journal todo no disco, o checkpoint final consegue esvazia-lo por completo.
+                journal.sincronizar();
+                checkpointer.agendar(capturarCheckpoint());
+                checkpointer.aguardar();
+                return;
+            }
+            try {
+                sequencias.salvar(sequencias.capturar());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            if (!sincronizarHistorico()) {
+                journal.sincronizar();
+                return;
+            }
+            if (Configuracao.SNAPSHOT_BINARIO) {
+                salvarSnapshot();
+                return;
+            }
+
+            boolean completo = salvarSeAlterado(Colecao.USUARIOS, users.size(), () -> XMLUtils.salvarUsuarios(users, "users.xml"));
+            // O log so acrescenta as entidades alteradas, entao o modo delta nao tem o que economizar nele (tamanho 0).
+            int tamanhoPedidos = Configuracao.LOG_PEDIDOS ? 0 : pedidos.size();
+            int tamanhoEntregas = Configuracao.LOG_PEDIDOS ? 0 : entregas.size();
+            completo &= salvarSeAlterado(Colecao.PEDIDOS, tamanhoPedidos, () -> gravacaoPedidos(false).executar());
+            completo &= salvarSeAlterado(Colecao.EMPRESAS, empresas.size(), gravacaoEmpresas(false));
+            completo &= salvarSeAlterado(Colecao.ENTREGAS, tamanhoEntregas, () -> gravacaoEntregas(false).executar());
+
+            if (completo) {
+                journal.truncar();
+            } else {
+                // Os registros das colecoes que ficaram limpas ja estao nos arquivos; reaplica-los sobre eles
+                // repetiria efeitos como o de fecharPedido, entao saem do journal.
+                journal.sincronizar();
+                Set<Byte> gravados = new HashSet<>();
+                for (Colecao colecao : Colecao.values()) {
+                    if (!alteracoes.sujo(colecao)) {
+                        gravados.addAll(tiposDoJournal(colecao));
+                    }
+                }
+                journal.descartarTipos(gravados);
+            }
+        }
+    }
+
+    private static List<Byte> tiposDoJournal(Colecao colecao) {
+        return switch (colecao) {
+            case USUARIOS -> List.of(Journal.USUARIO);
+            case EMPRESAS -> List.of(Journal.EMPRESA, Journal.PRODUTO);
+            case PEDIDOS -> List.of(Journal.PEDIDO, Journal.PEDIDO_FECHADO, Journal.PEDIDO_REMOVIDO);
+            case ENTREGAS -> List.of(Journal.ENTREGA);
+        };
+    }
+
+    // O snapshot binario e um arquivo so, entao qualquer alteracao reescreve o snapshot inteiro.
+    private void salvarSnapshot() {
+        File snapshotFile = new File("myfood.snapshot");
+        boolean sujo = false;
+        for (Colecao colecao : Colecao.values()) {
+            sujo |= alteracoes.sujo(colecao);
+        }
+        if (!sujo && snapshotFile.exists()) {
+            return;
+        }
+        try {
+            BinarySnapshot.salvar(snapshotFile, users, empresas, pedidos, entregas);
+            alteracoes.limparTudo();
+            journal.truncar();
+        } catch (IOException e) {
+            e.printStackTrace();
+            journal.sincronizar();
+        }
+    }
+
+    // Copia, na thread da requisicao, as colecoes que precisam ser gravadas; a gravacao em si
+    // fica com a thread do checkpointer. Depois que os arquivos estao no lugar, o journal
+    // descarta o que o checkpoint ja cobre.
+    private Checkpointer.Tarefa capturarCheckpoint() {
+        if (checkpointer.falhou()) {
+            marcarTudo();
+        }
+        long marca = journal.marca();
+        int[] marcasIds = sequencias.capturar();
+
+        if (Configuracao.SNAPSHOT_BINARIO) {
+            List<User> usersCopia = copiar(users, User::copia);
+            List<Enterprise> empresasCopia = copiar(empresas, Enterprise::copia);
+            List<Pedido> pedidosCopia = copiar(pedidos, Pedido::copia);
+            List<Entrega> entregasCopia = copiar(entregas, Entrega::copia);
+            alteracoes.limparTudo();
+            return () -> {
+                if (historico != null) {
+                    historico.sincronizar();
+                }
+                BinarySnapshot.salvar(new File("myfood.snapshot"), usersCopia, empresasCopia, pedidosCopia, entregasCopia);
+                sequencias.salvar(marcasIds);
+                journal.descartarAte(marca);
+            };
+        }
+
+        List<User> usersCopia = alteracoes.sujo(Colecao.USUARIOS) ? copiar(users, User::copia) : null;
+        Checkpointer.Tarefa gravarEmpresas = alteracoes.sujo(Colecao.EMPRESAS) ? gravacaoEmpresas(true) : null;
+        Checkpointer.Tarefa gravarPedidos = alteracoes.sujo(Colecao.PEDIDOS) ? gravacaoPedidos(true) : null;
+        Checkpointer.Tarefa gravarEntregas = alteracoes.sujo(Colecao.ENTREGAS) ? gravacaoEntregas(true) : null;
+        alteracoes.limparTudo();
+        return () -> {
+            if (historico != null) {
+                historico.sincronizar();
+            }
+            if (usersCopia != null) {
+                XMLUtils.salvarUsuarios(usersCopia, "users.xml");
+            }
+            if (gravarPedidos != null) {
+                gravarPedidos.executar();
+            }
+            if (gravarEmpresas != null) {
+                gravarEmpresas.executar();
+            }
+            if (gravarEntregas != null) {
+                gravarEntregas.executar();
+            }
+            sequencias.salvar(marcasIds);
+            journal.descartarAte(marca);
+        };
+    }
+
+    // Grava o catalogo no layout configurado e apaga o outro, para que um arquivo desatualizado nunca seja carregado.
+    // No catalogo dividido so as empresas marcadas como alteradas sao gravadas (copiadas, se for para um checkpoint).
+    private Checkpointer.Tarefa gravacaoEmpresas(boolean copiar) {
+        if (Configuracao.CATALOGO_DIVIDIDO) {
+            Set<Integer> ids = alteracoes.ids(Colecao.EMPRESAS);
+            List<Integer> ordem = new ArrayList<>(empresas.size());
+            List<Enterprise> alteradas = new ArrayList<>();
+            for (Enterprise empresa : empresas) {
+                ordem.add(empresa.id);
+                if (ids.contains(empresa.id)) {
+                    alteradas.add(copiar ? empresa.copia() : empresa);
+                }
+            }
+            return () -> {
+                catalogo.salvar(ordem, alteradas);
+                new File("empresas.xml").delete();
+            };
+        }
+
+        List<Enterprise> lista = copiar ? copiar(empresas, Enterprise::copia) : empresas;
+        return () -> {
+            XMLUtils.salvarEmpresas(lista, "empresas.xml");
+            catalogo.limpar();
+        };
+    }
+
+    private Checkpointer.Tarefa gravacaoPedidos(boolean copiar) {
+        return gravacaoLog(logPedidos, pedidos, Colecao.PEDIDOS, Pedido::copia, copiar,
+                "pedidos.xml", lista -> () -> XMLUtils.salvarPedidos(lista, "pedidos.xml"));
+    }
+
+    private Checkpointer.Tarefa gravacaoEntregas(boolean copiar) {
+        return gravacaoLog(logEntregas, entregas, Colecao.ENTREGAS, Entrega::copia, copiar,
+                "entregas.xml", lista -> () -> XMLUtils.salvarEntregas(lista, "entregas.xml"));
+    }
+
+    // Com myfood.pedidos.log, acrescenta ao log so as entidades alteradas e apaga o XML; sem ele, reescreve o XML
+    // inteiro e apaga o log. O lote (e as copias) e montado aqui, na thread que chama.
+    private <T> Checkpointer.Tarefa gravacaoLog(OrderLog<T> log, List<T> lista, Colecao colecao, UnaryOperator<T> copia,
+                                                boolean copiar, String fileName, Function<List<T>, Checkpointer.Tarefa> xml) {
+        if (Configuracao.LOG_PEDIDOS) {
+            OrderLog.Lote<T> lote = log.preparar(lista, alteracoes.ids(colecao), copiar ? copia : UnaryOperator.identity());
+            return () -> {
+                log.gravar(lote);
+                new File(fileName).delete();
+            };
+        }
+
+        Checkpointer.Tarefa salvar = xml.apply(copiar ? copiar(lista, copia) : lista);
+        return () -> {
+            salvar.executar();
+            log.limpar();
+        };
+    }
+
+    private static <T> List<T> copiar(List<T> lista, UnaryOperator<T> copia) {
+        List<T> resultado = new ArrayList<>(lista.size());
+        for (T item : lista) {
+            resultado.add(copia.apply(item));
+        }
+        return resultado;
+    }
+
+    // Depois de um checkpoint que falhou, nao da para saber o que ficou gravado: tudo volta a ser sujo.
+    private void marcarTudo() {
+        for (User user : users) {
+            alteracoes.marcar(Colecao.USUARIOS, user.id);
+        }
+        for (Enterprise empresa : empresas) {
+            alteracoes.marcar(Colecao.EMPRESAS, empresa.id);
+        }
+        for (Pedido pedido : pedidos) {
+            alteracoes.marcar(Colecao.PEDIDOS, pedido.numero);
+        }
+        for (Entrega entrega : entregas) {
+            alteracoes.marcar(Colecao.ENTREGAS, entrega.id);
+        }
+    }
+
+    // O historico precisa estar no disco antes que os arquivos quentes deixem de ter os pedidos arquivados.
+    private boolean sincronizarHistorico() {
+        if (historico == null) {
+            return true;
+        }
+        try {
+            historico.sincronizar();
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    // O XML continua disponivel como formato de exportacao, independente do formato em uso.
+    public void exportarXML() {
+        try (StripedLocks.Secao secao = travas.exclusiva()) {
+            try {
+                XMLUtils.salvarUsuarios(users, "users.xml");
+                XMLUtils.salvarPedidos(pedidos, "pedidos.xml");
+                XMLUtils.salvarEmpresas(empresas, "empresas.xml");
+                XMLUtils.salvarEntregas(entregas, "entregas.xml");
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private boolean salvarSeAlterado(Colecao colecao, int tamanho, Checkpointer.Tarefa salvar) {
+        if (!alteracoes.sujo(colecao)) {
+            return true;
+        }
+        if (Configuracao.JOURNAL && Configuracao.DELTA && alteracoes.quantidade(colecao) < tamanho * Configuracao.DELTA_LIMITE) {
+            return false;
+        }
+        try {
+            salvar.executar();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        alteracoes.limpar(colecao);
+        return true;
     }
 
     public void zerarSistema() {
-        File usersFile = new File("users.xml");
-        File empresasFile = new File("empresas.xml");
-        File pedidosFile = new File("pedidos.xml");
-        File entregasFile = new File("entregas.xml");
-        users.clear();
-        empresas.clear();
-        pedidos.clear();
-        entregas.clear();
-        usersFile.delete();
-        empresasFile.delete();
-        pedidosFile.delete();
-        entregasFile.delete();
+        try (StripedLocks.Secao secao = travas.exclusiva()) {
+            if (checkpointer != null) {
+                checkpointer.aguardar();
+            }
+            File usersFile = new File("users.xml");
+            File empresasFile = new File("empresas.xml");
+            File pedidosFile = new File("pedidos.xml");
+            File entregasFile = new File("entregas.xml");
+            users.clear();
+            empresas.clear();
+            pedidos.clear();
+            entregas.clear();
+            reindexar();
+            usersFile.delete();
+            empresasFile.delete();
+            pedidosFile.delete();
+            entregasFile.delete();
+            new File("myfood.snapshot").delete();
+            catalogo.limpar();
+            try {
+                logPedidos.limpar();
+                logEntregas.limpar();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            if (historico != null) {
+                try {
+                    historico.limpar();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            sequencias.reiniciar();
+            alteracoes.limparTudo();
+            journal.truncar();
+        }
     }
 
-    public User getUser(int id) throws UserNotRegistered {
+    // Pedido pelo numero, na lista quente ou no historico. null se nao existir.
+    private Pedido buscarPedido(int numero) {
+        Pedido pedido = pedidoQuente(numero);
+        if (pedido != null || historico == null) {
+            return pedido;
+        }
         try {
-            return users.stream().filter(u -> u.id == id).findFirst().orElseThrow();
-        } catch (NoSuchElementException e) {
-            throw new UserNotRegistered();
+            return historico.pedido(numero);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
         }
     }
 
-    public Enterprise getEmpresa(int id) throws RestauranteNotFound {
+    private Entrega buscarEntrega(int id) {
+        Entrega entrega;
+        tabelas.readLock().lock();
         try {
-            return empresas.stream().filter(r -> r.id == id).findFirst().get();
-        } catch (Error e) {
-            throw new RestauranteNotFound();
+            entrega = entregasPorId.buscar(id);
+        } finally {
+            tabelas.readLock().unlock();
+        }
+        if (entrega != null || historico == null) {
+            return entrega;
+        }
+        try {
+            return historico.entrega(id);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
         }
     }
 
-    public Pedido getPedido(int id) throws PedidoNotFound {
+    // Um pedido arquivado que vai ser alterado volta para a lista quente. O journal recebe o pedido
+    // antes de ele sair do historico, para que uma queda no meio nao o perca.
+    private Pedido paraAlterar(Pedido pedido) {
+        if (historico == null || !historico.contemPedido(pedido.numero)) {
+            return pedido;
+        }
+        adicionarPedido(pedido);
+        registrar(pedido);
+        journal.sincronizar();
         try {
-            return pedidos.stream().filter(p -> p.numero == id).findFirst().get();
-        } catch (Error e) {
-            throw new PedidoNotFound();
+            historico.desarquivar(pedido);
+        } catch (IOException e) {
+            e.printStackTrace();
         }
+        return pedido;
     }
 
-    public String getAtributoUsuario(int id, String atributo) throws UserNotRegistered {
-        User user = getUser(id);
-        if (user == null) {
-            throw new UserNotRegistered();
+    private void arquivar(Pedido pedido) {
+        try {
+            if (!historico.contemPedido(pedido.numero)) {
+                historico.arquivar(pedido);
+            }
+            retirarPedido(pedido);
+            alteracoes.marcar(Colecao.PEDIDOS, pedido.numero);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void arquivar(Entrega entrega) {
+        try {
+            if (!historico.contemEntrega(entrega.id)) {
+                historico.arquivar(entrega);
+            }
+            tabelas.writeLock().lock();
+            try {
+                entregas.remove(entrega);
+                entregasPorId.remover(entrega.id);
+                if (entrega.pedido != null && entregaPorPedido.buscar(entrega.pedido) == entrega) {
+                    entregaPorPedido.remover(entrega.pedido);
+                }
+            } finally {
+                tabelas.writeLock().unlock();
+            }
+            alteracoes.marcar(Colecao.ENTREGAS, entrega.id);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Na inicializacao, tira da lista quente os pedidos entregues e as suas entregas. Os que ja estao no
+    // historico (queda entre arquivar e salvar os arquivos) so saem da lista.
+    private void arquivarEntregues() {
+        for (Pedido pedido : new ArrayList<>(pedidos)) {
+            if (pedido.estado == EstadoPedido.ENTREGUE || historico.contemPedido(pedido.numero)) {
+                arquivar(pedido);
+            }
+        }
+        for (Entrega entrega : new ArrayList<>(entregas)) {
+            if (historico.contemEntrega(entrega.id) || (entrega.pedido != null && historico.contemPedido(entrega.pedido))) {
+                arquivar(entrega);
+            }
+        }
+    }
+
+    // A captura copia as listas, entao so roda numa secao exclusiva; nas outras fica para quando a thread sair.
+    private void depoisDeAlterar() {
+        if (checkpointer != null && checkpointer.alterado()) {
+            if (travas.exclusivo()) {
+                checkpointer.agendar(capturarCheckpoint());
+            } else {
+                checkpointPendente.set(true);
+            }
+        }
+    }
+
+    // Chamado pelas travas quando a thread ja soltou todas.
+    private void capturarPendente() {
+        if (checkpointPendente.compareAndSet(true, false)) {
+            try (StripedLocks.Secao secao = travas.exclusiva()) {
+                checkpointer.agendar(capturarCheckpoint());
+            }
+        }
+    }
+
+    private void registrar(User user) {
+        journal.registrarUsuario(user);
+        alteracoes.marcar(Colecao.USUARIOS, user.id);
+        depoisDeAlterar();
+    }
+
+    private void registrar(Enterprise empresa) {
+        journal.registrarEmpresa(empresa);
+        alteracoes.marcar(Colecao.EMPRESAS, empresa.id);
+        depoisDeAlterar();
+    }
+
+    private void registrarProduto(int empresa, Produto produto) {
+        journal.registrarProduto(empresa, produto);
+        alteracoes.marcar(Colecao.EMPRESAS, empresa);
+        depoisDeAlterar();
+    }
+
+    private void registrar(Pedido pedido) {
+        journal.registrarPedido(pedido);
+        alteracoes.marcar(Colecao.PEDIDOS, pedido.numero);
+        depoisDeAlterar();
+    }
+
+    private void registrarPedidoFechado(Pedido pedido) {
+        journal.registrarPedidoFechado(pedido);
+        alteracoes.marcar(Colecao.PEDIDOS, pedido.numero);
+        depoisDeAlterar();
+    }
+
+    private void registrarPedidoRemovido(int numero) {
+        journal.registrarPedidoRemovido(numero);
+        alteracoes.marcar(Colecao.PEDIDOS, numero);
+        depoisDeAlterar();
+    }
+
+    private void registrar(Entrega entrega) {
+        journal.registrarEntrega(entrega);
+        alteracoes.marcar(Colecao.ENTREGAS, entrega.id);
+        depoisDeAlterar();
+    }
+
+    // Reaplica o journal sobre o estado carregado. Cada registro acha a sua entidade pelo id, sem varrer as listas.
+    private void reproduzirJournal() throws IOException {
+        usersReproduzidos = new PositionIndex<>(users, u -> u.id);
+        empresasReproduzidas = new PositionIndex<>(empresas, e -> e.id);
+        pedidosReproduzidos = new PositionIndex<>(pedidos, p -> p.numero);
+        entregasReproduzidas = new PositionIndex<>(entregas, e -> e.id);
+        produtosReproduzidos = new IntMap<>();
+        fechadosNaCarga = new IntMap<>();
+        for (Pedido pedido : pedidos) {
+            if (pedido.estado != EstadoPedido.ABERTO) {
+                fechadosNaCarga.colocar(pedido.numero, pedido);
+            }
         }
-        if ((user.isWhatType().equals("Dono")) && atributo.equals("cpf")) {
-            return ((Dono) user).cpf;
+        try {
+            journal.reproduzir(this::aplicarRegistro);
+        } finally {
+            usersReproduzidos.concluir();
+            empresasReproduzidas.concluir();
+            pedidosReproduzidos.concluir();
+            entregasReproduzidas.concluir();
+            usersReproduzidos = null;
+            empresasReproduzidas = null;
+            pedidosReproduzidos = null;
+            entregasReproduzidas = null;
+            produtosReproduzidos = null;
+            fechadosNaCarga = null;
         }
-        if (user.isWhatType().equals("Entregador")) {
-            Entregador entregador = (Entregador) user;
+    }
+
+    // Reaplica um registro do journal sobre o estado carregado do XML.
+    private void aplicarRegistro(byte tipo, DataInputStream in) throws IOException {
+        switch (tipo) {
+            case Journal.USUARIO -> {
+                User user = EntityCodec.PADRAO.lerUsuario(in);
+                usersReproduzidos.substituir(user);
+                alteracoes.marcar(Colecao.USUARIOS, user.id);
+            }
+            case Journal.EMPRESA -> {
+                Enterprise empresa = EntityCodec.PADRAO.lerEmpresa(in);
+                Enterprise antiga = empresasReproduzidas.buscar(empresa.id);
+                if (antiga != null) {
+                    empresa.produtos = antiga.produtos;
+                }
+                empresasReproduzidas.substituir(empresa);
+                alteracoes.marcar(Colecao.EMPRESAS, empresa.id);
+            }
+            case Journal.PRODUTO -> {
+                int idEmpresa = in.readInt();
+                Produto produto = EntityCodec.PADRAO.lerProduto(in);
+                Enterprise empresa = empresasReproduzidas.buscar(idEmpresa);
+                if (empresa == null) {
+                    throw new IOException("Empresa do produto nao encontrada");
+                }
+                // A lista de produtos passa de uma versao da empresa para a outra, entao o indice dela continua valendo.
+                IntMap<Produto> produtos = produtosReproduzidos.buscar(idEmpresa);
+                if (produtos == null) {
+                    produtos = new IntMap<>(empresa.produtos.size());
+                    for (Produto p : empresa.produtos) {
+                        produtos.colocarSeAusente(p.numero, p);
+                    }
+                    produtosReproduzidos.colocar(idEmpresa, produtos);
+                }
+                Produto antigo = produtos.buscar(produto.numero);
+                if (antigo != null) {
+                    antigo.nome = produto.nome;
+                    antigo.valor = produto.valor;
+                    antigo.categoria = produto.categoria;
+                    empresa.produtoRenomeado();
+                } else {
+                    empresa.adicionarProduto(produto);
+                    produtos.colocar(produto.numero, produto);
+                }
+                alteracoes.marcar(Colecao.EMPRESAS, idEmpresa);
+            }
+            case Journal.PEDIDO -> {
+                Pedido pedido = EntityCodec.PADRAO.lerPedido(in);
+                pedidosReproduzidos.substituir(pedido);
+                alteracoes.marcar(Colecao.PEDIDOS, pedido.numero);
+            }
+            case Journal.PEDIDO_FECHADO -> {
+                Pedido pedido = EntityCodec.PADRAO.lerPedido(in);
+                // Um pedido so fecha uma vez. Se ele ja veio fechado da carga, este registro e anterior ao estado
+                // salvo (queda antes de esvaziar o journal, modo delta) e o pedido ja esta no lugar certo.
+                if (fechadosNaCarga.contem(pedido.numero)) {
+                    pedidosReproduzidos.substituir(pedido);
+                } else {
+                    pedidosReproduzidos.moverParaOFim(pedido);
+                }
+                alteracoes.marcar(Colecao.PEDIDOS, pedido.numero);
+            }
+            case Journal.PEDIDO_REMOVIDO -> {
+                int numero = in.readInt();
+                pedidosReproduzidos.remover(numero);
+                alteracoes.marcar(Colecao.PEDIDOS, numero);
+            }
+            case Journal.ENTREGA -> {
+                Entrega entrega = EntityCodec.PADRAO.lerEntrega(in);
+                entregasReproduzidas.substituir(entrega);
+                alteracoes.marcar(Colecao.ENTREGAS, entrega.id);
+            }
+            default -> throw new IOException("Registro de journal desconhecido: " + tipo);
+        }
+    }
+
+    private boolean ehDono(int id) {
+        User user = usersPorId.buscar(id);
+        return user != null && user.isWhatType().equals("Dono");
+    }
+
+    private String nomeDoUsuario(int id, String padrao) {
+        User user = usersPorId.buscar(id);
+        return user != null ? user.nome : padrao;
+    }
+
+    public User getUser(int id) throws UserNotRegistered {
+        try (StripedLocks.Secao secao = travas.leitura()) {
+            try {
+                return Optional.ofNullable(usersPorId.buscar(id)).orElseThrow();
+            } catch (NoSuchElementException e) {
+                throw new UserNotRegistered();
+            }
+        }
+    }
+
+    public Enterprise getEmpresa(int id) throws RestauranteNotFound {
+        try (StripedLocks.Secao secao = travas.leitura()) {
+            try {
+                return Optional.ofNullable(empresasPorId.buscar(id)).get();
+            } catch (Error e) {
+                throw new RestauranteNotFound();
+            }
+        }
+    }
+
+    public Pedido getPedido(int id) throws PedidoNotFound {
+        try (StripedLocks.Secao secao = travas.leitura()) {
+            try {
+                return Optional.ofNullable(buscarPedido(id)).get();
+            } catch (Error e) {
+                throw new PedidoNotFound();
+            }
+        }
+    }
+
+    public String getAtributoUsuario(int id, String atributo) throws UserNotRegistered {
+        try (StripedLocks.Secao secao = travas.leitura()) {
+            User user = getUser(id);
+            if (user == null) {
+                throw new UserNotRegistered();
+            }
+            if ((user.isWhatType().equals("Dono")) && atributo.equals("cpf")) {
+                return ((Dono) user).cpf;
+            }
+            if (user.isWhatType().equals("Entregador")) {
+                Entregador entregador = (Entregador) user;
+                return switch (atributo.toLowerCase()) {
+                    case "placa" -> entregador.placa;
+                    case "veiculo" -> entregador.veiculo;
+                    case "nome" -> entregador.nome;
+                    case "email" -> entregador.email;
+                    case "senha" -> entregador.senha;
+                    case "endereco" -> entregador.endereco;
+                    case "id", "numero" -> entregador.id + "";
+
+                    default -> throw new UserNotRegistered();
+                };
+            }
             return switch (atributo.toLowerCase()) {
-                case "placa" -> entregador.placa;
-                case "veiculo" -> entregador.veiculo;
-                case "nome" -> entregador.nome;
-                case "email" -> entregador.email;
-                case "senha" -> entregador.senha;
-                case "endereco" -> entregador.endereco;
-                case "id", "numero" -> entregador.id + "";
+                case "nome" -> user.nome;
+                case "email" -> user.email;
+                case "senha" -> user.senha;
+                case "endereco" -> user.endereco;
+                case "id", "numero" -> user.id + "";
 
                 default -> throw new UserNotRegistered();
             };
         }
-        return switch (atributo.toLowerCase()) {
-            case "nome" -> user.nome;
-            case "email" -> user.email;
-            case "senha" -> user.senha;
-            case "endereco" -> user.endereco;
-            case "id", "numero" -> user.id + "";
-
-            default -> throw new UserNotRegistered();
-        };
     }
 
     //Verificar dados do Cliente
@@ -164,125 +1110,149 @@ public class Sistema {
 
     //Cliente
     public void criarUsuario(String nome, String email, String senha, String endereco) throws EmailAlreadyExist, InvalidName, InvalidEmail, InvalidAddress, InvalidPassword {
-        verifyData(nome, email, senha, endereco);
+        try (StripedLocks.Secao secao = travas.exclusiva()) {
+            verifyData(nome, email, senha, endereco);
 
-        if (users.stream().anyMatch(u -> u.email.equals(email))) {
-            throw new EmailAlreadyExist();
+            if (usersPorEmail.containsKey(email)) {
+                throw new EmailAlreadyExist();
+            }
+            User newUser = new Cliente(nome, email, senha, endereco);
+            users.add(newUser);
+            indexar(newUser);
+            registrar(newUser);
         }
-        User newUser = new Cliente(nome, email, senha, endereco);
-        users.add(newUser);
     }
 
     //Dono
     public void criarUsuario(String nome, String email, String senha, String endereco, String cpf) throws EmailAlreadyExist, InvalidName, InvalidEmail, InvalidAddress, InvalidPassword {
-        verifyData(nome, email, senha, endereco, cpf);
+        try (StripedLocks.Secao secao = travas.exclusiva()) {
+            verifyData(nome, email, senha, endereco, cpf);
 
-        if (users.stream().anyMatch(u -> u.email.equals(email))) {
-            throw new EmailAlreadyExist();
+            if (usersPorEmail.containsKey(email)) {
+                throw new EmailAlreadyExist();
+            }
+            User newUser = new Dono(nome, email, senha, cpf, endereco);
+            users.add(newUser);
+            indexar(newUser);
+            registrar(newUser);
         }
-        User newUser = new Dono(nome, email, senha, cpf, endereco);
-        users.add(newUser);
     }
 
     public int login(String email, String senha) throws InvalidLoginData {
-        if (email == null || email.isEmpty() || !email.contains("@") ||senha == null || senha.isEmpty() || senha.length() < 4) {
-            throw new InvalidLoginData();
+        try (StripedLocks.Secao secao = travas.leitura()) {
+            if (email == null || email.isEmpty() || !email.contains("@") ||senha == null || senha.isEmpty() || senha.length() < 4) {
+                throw new InvalidLoginData();
+            }
+            return Optional.ofNullable(usersPorEmail.get(email)).filter(u -> u.senha.equals(senha)).get().id;
         }
-        return users.stream().filter(u -> u.email.equals(email) && u.senha.equals(senha)).findFirst().get().id;
     }
 
     //Restaurante
     public int criarEmpresa(String tipoEmpresa, int dono, String nome, String endereco, String tipoCozinha) throws NameAlreadyExist, AddresAlreadyExist, NameAndAddresAlreadyExist, UserCantCreate {
-        if(users.stream().noneMatch(u -> u.id == dono && (u.isWhatType() == "Dono"))) {
-            throw new UserCantCreate();
-        }
+        try (StripedLocks.Secao secao = travas.exclusiva()) {
+            if(!ehDono(dono)) {
+                throw new UserCantCreate();
+            }
 
-        if (tipoEmpresa.equals("restaurante")) {
+            if (tipoEmpresa.equals("restaurante")) {
 
-            if (empresas.stream().anyMatch(r -> r.nome.equals(nome) && r.idDono != dono) ) {
-                throw new NameAlreadyExist();
-            }
+                if (empresasPorNome.usadoPorOutroDono(nome, dono)) {
+                    throw new NameAlreadyExist();
+                }
 
-            if (empresas.stream().anyMatch(r -> r.nome.equals(nome) && r.endereco.equals(endereco) && r.idDono == dono) ) {
-                throw new NameAndAddresAlreadyExist();
-            }
+                if (empresasPorNome.contem(nome, endereco)) {
+                    throw new NameAndAddresAlreadyExist();
+                }
 
-            Restaurante novoRestaurante = new Restaurante(nome, endereco, tipoCozinha, dono);
-            empresas.add(novoRestaurante);
-            return novoRestaurante.id;
-        } else {
-            throw new Error("Empresa não é um restaurante");
+                Restaurante novoRestaurante = new Restaurante(nome, endereco, tipoCozinha, dono);
+                empresas.add(novoRestaurante);
+                indexar(novoRestaurante);
+                registrar(novoRestaurante);
+                return novoRestaurante.id;
+            } else {
+                throw new Error("Empresa não é um restaurante");
+            }
         }
     }
 
     public String getEmpresasDoUsuario(int idDono) throws UserCantCreate {
-        if (!users.stream().anyMatch(r -> r.id == idDono && (r.isWhatType() == "Dono"))) {
-            throw new UserCantCreate();
-        }
+        try (StripedLocks.Secao secao = travas.leitura()) {
+            if (!ehDono(idDono)) {
+                throw new UserCantCreate();
+            }
 
-        StringBuilder stringRestaurantes = new StringBuilder("{[");
-        for (Enterprise empresa : empresas) {
-            if (empresa.idDono == idDono) {
-                stringRestaurantes.append("[").append(empresa.nome).append(", ").append(empresa.endereco).append("], ");
+            // O cache e preenchido por consultas concorrentes, entao cada acesso passa pelo monitor dele.
+            String texto;
+            synchronized (empresasDoUsuarioTexto) {
+                texto = empresasDoUsuarioTexto.buscar(idDono);
+            }
+            if (texto != null) {
+                return texto;
             }
-        }
 
-        if (stringRestaurantes.length() == 2) {
-            for (Enterprise empresa : empresas) {
-                if (empresa.idDono == idDono) {
+            StringBuilder stringRestaurantes = new StringBuilder("{[");
+            List<Enterprise> doDono = empresasPorDono.buscar(idDono);
+            if (doDono != null) {
+                for (Enterprise empresa : doDono) {
                     stringRestaurantes.append("[").append(empresa.nome).append(", ").append(empresa.endereco).append("], ");
                 }
             }
-        }
 
-        if (stringRestaurantes.length() == 2) { // Se não houver restaurantes
-            return "{[]}";
-        } else {
-            // Remover a vírgula e o espaço extras antes de fechar
-            stringRestaurantes.setLength(stringRestaurantes.length() - 2);
-            stringRestaurantes.append("]}");
-            return stringRestaurantes.toString();
+            if (stringRestaurantes.length() == 2) { // Se não houver restaurantes
+                texto = "{[]}";
+            } else {
+                // Remover a vírgula e o espaço extras antes de fechar
+                stringRestaurantes.setLength(stringRestaurantes.length() - 2);
+                stringRestaurantes.append("]}");
+                texto = stringRestaurantes.toString();
+            }
+            synchronized (empresasDoUsuarioTexto) {
+                empresasDoUsuarioTexto.colocar(idDono, texto);
+            }
+            return texto;
         }
     }
 
     public int getIdEmpresa (int idDono, String nome, int indice) throws EnterpriseNameNotRegistered, InvalidName, InvalidIndex, BigIndex {
-        if (nome == null || nome.isEmpty()) {
-            throw new InvalidName();
-        } else if (indice < 0 || indice >= users.size()) {
-            throw new InvalidIndex();
-        }
+        try (StripedLocks.Secao secao = travas.leitura()) {
+            if (nome == null || nome.isEmpty()) {
+                throw new InvalidName();
+            } else if (indice < 0 || indice >= users.size()) {
+                throw new InvalidIndex();
+            }
 
-        List<Enterprise> empresasComMesmoNome = empresas.stream().filter(r -> r.nome.equals(nome)).toList();
+            List<Integer> empresasComMesmoNome = empresasPorNome.ids(nome);
 
-        if (indice < empresasComMesmoNome.size() && empresasComMesmoNome.size() != 0) {
-            return empresasComMesmoNome.get(indice).id;
-        } else if (empresasComMesmoNome.size() != 0 && indice >= empresasComMesmoNome.size()) {
-            throw new BigIndex();
-        }
+            if (indice < empresasComMesmoNome.size() && empresasComMesmoNome.size() != 0) {
+                return empresasComMesmoNome.get(indice);
+            } else if (empresasComMesmoNome.size() != 0 && indice >= empresasComMesmoNome.size()) {
+                throw new BigIndex();
+            }
 
-        throw new EnterpriseNameNotRegistered();
+            throw new EnterpriseNameNotRegistered();
+        }
     }
 
 
     // Get Atributo Empresa
     public String getAtributoEmpresa (int empresa, String atributo) throws InvalidAttribute, EnterpriseNotRegistered {
-
-        Optional<Enterprise> empresaOpt = empresas.stream().filter(r -> r.id == empresa).findFirst();
-        if (empresaOpt.isPresent()) {
-            Enterprise emp = empresaOpt.get();
-            if (emp.isWhatType().equals("Restaurante")){
-                Restaurante restaurante = (Restaurante) emp;
-                return getAtributoRestaurante(restaurante, atributo);
-            } else if(emp.isWhatType().equals("Mercado")) {
-                Mercado mercado = (Mercado) emp;
-                return getAtributoMercado(mercado, atributo);
-            } else if(emp.isWhatType().equals("Farmacia")) {
-                Farmacia farmacia = (Farmacia) emp;
-                return getAtributoFarmacia(farmacia, atributo);
+        try (StripedLocks.Secao secao = travas.leitura()) {
+            Optional<Enterprise> empresaOpt = Optional.ofNullable(empresasPorId.buscar(empresa));
+            if (empresaOpt.isPresent()) {
+                Enterprise emp = empresaOpt.get();
+                if (emp.isWhatType().equals("Restaurante")){
+                    Restaurante restaurante = (Restaurante) emp;
+                    return getAtributoRestaurante(restaurante, atributo);
+                } else if(emp.isWhatType().equals("Mercado")) {
+                    Mercado mercado = (Mercado) emp;
+                    return getAtributoMercado(mercado, atributo);
+                } else if(emp.isWhatType().equals("Farmacia")) {
+                    Farmacia farmacia = (Farmacia) emp;
+                    return getAtributoFarmacia(farmacia, atributo);
+                }
             }
+            throw new EnterpriseNotRegistered();
         }
-        throw new EnterpriseNotRegistered();
-
     }
 
     private String getAtributoRestaurante(Restaurante restaurante, String atributo) throws InvalidAttribute {
@@ -301,7 +1271,7 @@ public class Sistema {
             case "tipocozinha":
                 return restaurante.tipoCozinha;
             case "dono":
-                String nomeDono = users.stream().filter(r -> r.id == restaurante.idDono).map(r -> r.nome).findFirst().orElse("Dono não encontrado");
+                String nomeDono = nomeDoUsuario(restaurante.idDono, "Dono não encontrado");
                 return nomeDono;
         }
 
@@ -328,7 +1298,7 @@ public class Sistema {
                 case "fecha":
                     return mercado.fecha;
                 case "dono":
-                    String nomeDono = users.stream().filter(r -> r.id == mercado.idDono).map(r -> r.nome).findFirst().orElse("Dono não encontrado");
+                    String nomeDono = nomeDoUsuario(mercado.idDono, "Dono não encontrado");
                     return nomeDono;
             }
 
@@ -346,7 +1316,7 @@ public class Sistema {
             case "endereco" -> farmacia.endereco;
             case "aberto24horas" -> farmacia.aberto24horas + "";
             case "numerofuncionarios" -> farmacia.numeroFuncionarios + "";
-            case "dono" -> users.stream().filter(r -> r.id == farmacia.idDono).map(r -> r.nome).findFirst().orElse("Dono não encontrado");
+            case "dono" -> nomeDoUsuario(farmacia.idDono, "Dono não encontrado");
             default -> throw new InvalidAttribute();
         };
     }
@@ -354,393 +1324,470 @@ public class Sistema {
 
 
     public int criarProduto(int empresa, String nome, float valor, String categoria) throws ProductNameAtEnterprise, InvalidName, InvalidPrice, WrongCategory, EnterpriseNotRegistered {
-        if (nome == null || nome.equals("")) {
-            throw new InvalidName();
-        }
-        else if (valor < 0) {
-            throw new InvalidPrice();
-        }
-        else if (categoria == null || categoria.equals("")) {
-            throw new WrongCategory();
-        }
+        try (StripedLocks.Secao secao = travas.exclusiva()) {
+            if (nome == null || nome.equals("")) {
+                throw new InvalidName();
+            }
+            else if (valor < 0) {
+                throw new InvalidPrice();
+            }
+            else if (categoria == null || categoria.equals("")) {
+                throw new WrongCategory();
+            }
 
-        Optional<Enterprise> empresaOpt = empresas.stream().filter(r -> r.id == empresa).findFirst();
+            Optional<Enterprise> empresaOpt = Optional.ofNullable(empresasPorId.buscar(empresa));
 
-        if (empresaOpt.isPresent()) {
-            Enterprise emp = empresaOpt.get();
+            if (empresaOpt.isPresent()) {
+                Enterprise emp = empresaOpt.get();
 
-            if (emp.isWhatType().equals("Restaurante")) {
-                Restaurante r = (Restaurante) emp;
-                if (r.produtos.stream().anyMatch(p -> p.nome.equals(nome))) {
-                    throw new ProductNameAtEnterprise();
-                }
-                Produto p = new Produto(nome, valor, categoria);
-                r.produtos.add(p);
-                return p.numero;
-            } else if (emp.isWhatType().equals("Mercado")) {
-                Mercado m = (Mercado) emp;
-                if (m.produtos.stream().anyMatch(p -> p.nome.equals(nome))) {
-                    throw new ProductNameAtEnterprise();
-                }
-                Produto p = new Produto(nome, valor, categoria);
-                m.produtos.add(p);
-                return p.numero;
-            } else if (emp.isWhatType().equals("Farmacia")) {
-                Farmacia f = (Farmacia) emp;
-                if (f.produtos.stream().anyMatch(p -> p.nome.equals(nome))) {
-                    throw new ProductNameAtEnterprise();
+                if (emp.isWhatType().equals("Restaurante")) {
+                    Restaurante r = (Restaurante) emp;
+                    if (r.buscarProduto(nome) != null) {
+                        throw new ProductNameAtEnterprise();
+                    }
+                    Produto p = new Produto(nome, valor, categoria);
+                    r.adicionarProduto(p);
+                    indexar(r, p);
+                    registrarProduto(r.id, p);
+                    return p.numero;
+                } else if (emp.isWhatType().equals("Mercado")) {
+                    Mercado m = (Mercado) emp;
+                    if (m.buscarProduto(nome) != null) {
+                        throw new ProductNameAtEnterprise();
+                    }
+                    Produto p = new Produto(nome, valor, categoria);
+                    m.adicionarProduto(p);
+                    indexar(m, p);
+                    registrarProduto(m.id, p);
+                    return p.numero;
+                } else if (emp.isWhatType().equals("Farmacia")) {
+                    Farmacia f = (Farmacia) emp;
+                    if (f.buscarProduto(nome) != null) {
+                        throw new ProductNameAtEnterprise();
+                    }
+                    Produto p = new Produto(nome, valor, categoria);
+                    f.adicionarProduto(p);
+                    indexar(f, p);
+                    registrarProduto(f.id, p);
+                    return p.numero;
                 }
-                Produto p = new Produto(nome, valor, categoria);
-                f.produtos.add(p);
-                return p.numero;
             }
+            throw new EnterpriseNotRegistered();
         }
-        throw new EnterpriseNotRegistered();
-
     }
 
     public void editarProduto(int produto, String nome, float valor, String categoria) throws InvalidName, InvalidPrice, WrongCategory, ProductNotRegistered, RequestNotFound2 {
-
-        if (nome == null || nome.equals("")) {
-            throw new InvalidName();
-        } else if (valor < 0) {
-            throw new InvalidPrice();
-        } else if (categoria == null || categoria.equals("")) {
-            throw new WrongCategory();
-        } else if (produto < 0 || produto >= empresas.size() || empresas.stream().noneMatch(r -> r.produtos.stream().anyMatch(p -> p.numero == produto))) {
-            throw new ProductNotRegistered();
-        }
-
-        for (Enterprise empresa: empresas) {
-            for (Produto p : empresa.produtos) {
-                if (p.numero == produto) {
-                    p.nome = nome;
-                    p.valor = valor;
-                    p.categoria = categoria;
-                    return;
-                }
+        try (StripedLocks.Secao secao = travas.exclusiva()) {
+            if (nome == null || nome.equals("")) {
+                throw new InvalidName();
+            } else if (valor < 0) {
+                throw new InvalidPrice();
+            } else if (categoria == null || categoria.equals("")) {
+                throw new WrongCategory();
+            } else if (!produtosPorNumero.contem(produto)) {
+                throw new ProductNotRegistered();
             }
+
+            Produto p = produtosPorNumero.buscar(produto);
+            Enterprise empresa = empresaDoProduto.buscar(produto);
+            p.nome = nome;
+            p.valor = valor;
+            p.categoria = categoria;
+            empresa.produtoRenomeado();
+            registrarProduto(empresa.id, p);
         }
-        throw new RequestNotFound2();
     }
 
     public String getProduto(String nome, int empresaId, String atributo) throws ProductNotFound, AtributeDontExist, RestauranteNotFound {
-        Enterprise empresa = getEmpresa(empresaId);
-        for (Produto p : empresa.produtos) {
-            if (p.nome.equals(nome)) {
-                switch (atributo.toLowerCase()) {
-                    case "id", "produto":
-                        return p.numero + "";
-                    case "nome":
-                        return p.nome;
-                    case "valor":
-                        String valor = String.format("%.2f", p.valor);
-                        if (valor.contains(",")) {
-                            valor = valor.replace(",", ".");
-                        }
-                        return valor;
-                    case "categoria":
-                        return p.categoria;
-                    case "empresa":
-                        return empresa.nome;
-                }
-                throw new AtributeDontExist();
+        try (StripedLocks.Secao secao = travas.leitura()) {
+            Enterprise empresa = getEmpresa(empresaId);
+            Produto p = empresa.buscarProduto(nome);
+            if (p == null) {
+                throw new ProductNotFound();
+            }
+            switch (atributo.toLowerCase()) {
+                case "id", "produto":
+                    return p.numero + "";
+                case "nome":
+                    return p.nome;
+                case "valor":
+                    String valor = String.format("%.2f", p.valor);
+                    if (valor.contains(",")) {
+                        valor = valor.replace(",", ".");
+                    }
+                    return valor;
+                case "categoria":
+                    return p.categoria;
+                case "empresa":
+                    return empresa.nome;
             }
+            throw new AtributeDontExist();
         }
-        throw new ProductNotFound();
     }
 
     public String listarProdutos(int empresaId) throws EnterpriseNotFound, RestauranteNotFound {
+        try (StripedLocks.Secao secao = travas.leitura()) {
+            if (!empresasPorId.contem(empresaId)) {
+                throw new EnterpriseNotFound();
+            }
 
-        if (empresas.stream().noneMatch(r -> r.id == empresaId)) {
-            throw new EnterpriseNotFound();
-        }
-
-        Enterprise r = getEmpresa(empresaId);
-        StringBuilder stringProdutos = new StringBuilder("{[");;
-        // Se não achar a empresa, retorna uma string vazia
+            Enterprise r = getEmpresa(empresaId);
+            StringBuilder stringProdutos = new StringBuilder("{[");;
+            // Se não achar a empresa, retorna uma string vazia
 
-        for (Produto p : r.produtos) {
-            stringProdutos.append(p.nome).append(", ");
-        }
-        if (stringProdutos.length() > 2) {
-            stringProdutos.setLength(stringProdutos.length() - 2);
+            for (Produto p : r.produtos) {
+                stringProdutos.append(p.nome).append(", ");
+            }
+            if (stringProdutos.length() > 2) {
+                stringProdutos.setLength(stringProdutos.length() - 2);
+            }
+            stringProdutos.append("]}");
+            return stringProdutos.toString();
         }
-        stringProdutos.append("]}");
-        return stringProdutos.toString();
-
     }
 
     public int criarPedido(int cliente, int empresa) throws DonoCannotCreateOrder, CannotHaveMoreThanOneOrderSameEnterprise {
-        if (users.stream().anyMatch(u -> u.id == cliente && (u.isWhatType() == "Dono"))) {
-            throw new DonoCannotCreateOrder();
-        } else if (pedidos.stream().anyMatch(p -> p.cliente == cliente && p.empresa == empresa && p.estado.equals("aberto"))) {
-            throw new CannotHaveMoreThanOneOrderSameEnterprise();
-        }
+        try (StripedLocks.Secao secao = travas.empresa(empresa)) {
+            if (ehDono(cliente)) {
+                throw new DonoCannotCreateOrder();
+            } else if (pedidoAberto(cliente, empresa) != null) {
+                throw new CannotHaveMoreThanOneOrderSameEnterprise();
+            }
 
 
 
-        Pedido p = new Pedido(cliente, empresa);
-        pedidos.add(p);
-        return p.numero;
+            Pedido p = new Pedido(cliente, empresa);
+            adicionarPedido(p);
+            registrar(p);
+            return p.numero;
+        }
     }
 
     public int getNumeroPedido(int cliente, int empresa, int indice) throws RequestNotFound {
-        try {
-            List<Pedido> pedidosCliente = pedidos.stream().filter(p -> p.empresa == empresa && p.cliente == cliente).toList();
-            return pedidosCliente.get(indice).numero;
-        } catch (Error e) {
-            throw new RequestNotFound();
+        try (StripedLocks.Secao secao = travas.leitura()) {
+            tabelas.readLock().lock();
+            try {
+                List<Pedido> pedidosCliente = pedidosPorPar.pedidos(cliente, empresa);
+                if (historico != null) {
+                    return intercalar(pedidosCliente, historico.pedidosDoPar(cliente, empresa)).get(indice);
+                }
+                return pedidosCliente.get(indice).numero;
+            } catch (Error e) {
+                throw new RequestNotFound();
+            } finally {
+                tabelas.readLock().unlock();
+            }
         }
     }
 
-    public void adicionarProduto(int numero, int produto) throws NoOpenedOrder, ProductDoesntBelongEnterprise, CannotAddProductOrderClosed, RestauranteNotFound, PedidoNotFound {
-
-        if (pedidos.stream().noneMatch(p -> p.numero == numero)) {
-            throw new NoOpenedOrder();
-        } else if(pedidos.stream().anyMatch(p -> p.numero == numero && p.estado.equals("preparando"))) {
-            throw new CannotAddProductOrderClosed();
+    // Dentro de um par (cliente, empresa) a lista segue a ordem de criacao, entao os pedidos arquivados
+    // entram pelo numero entre os que ainda estao na lista quente.
+    private static List<Integer> intercalar(List<Pedido> quentes, List<Integer> arquivados) {
+        List<Integer> numeros = new ArrayList<>(quentes.size() + arquivados.size());
+        int i = 0;
+        for (Pedido pedido : quentes) {
+            while (i < arquivados.size() && arquivados.get(i) < pedido.numero) {
+                numeros.add(arquivados.get(i++));
+            }
+            numeros.add(pedido.numero);
+        }
+        while (i < arquivados.size()) {
+            numeros.add(arquivados.get(i++));
         }
+        return numeros;
+    }
 
-        Pedido p = getPedido(numero);
-        Enterprise ent = empresas.stream().filter(r -> r.id == p.empresa).findFirst().orElseThrow(RestauranteNotFound::new);
+    public void adicionarProduto(int numero, int produto) throws NoOpenedOrder, ProductDoesntBelongEnterprise, CannotAddProductOrderClosed, RestauranteNotFound, PedidoNotFound {
+        try (StripedLocks.Secao secao = travas.empresa(empresaDoPedido(numero))) {
+            Pedido existente = buscarPedido(numero);
+            if (existente == null) {
+                throw new NoOpenedOrder();
+            } else if (existente.estado != EstadoPedido.ABERTO) {
+                // Os produtos so mudam com o pedido aberto; depois disso a lista e lida sem travas.
+                throw new CannotAddProductOrderClosed();
+            }
 
-        if (!ent.produtos.stream().anyMatch(rest -> rest.numero == produto)) {
-            throw new ProductDoesntBelongEnterprise();
-        }
+            Pedido p = paraAlterar(existente);
+            Enterprise ent = Optional.ofNullable(empresasPorId.buscar(p.empresa)).orElseThrow(RestauranteNotFound::new);
 
-        for (Produto prod : ent.produtos) {
-            if (prod.numero == produto) {
-                p.produtos.add(prod);
-                break;
+            Enterprise dona = empresaDoProduto.buscar(produto);
+            if (dona == null || dona.id != ent.id) {
+                throw new ProductDoesntBelongEnterprise();
             }
+
+            p.produtos.add(produtosPorNumero.buscar(produto));
+            registrar(p);
         }
     }
 
     public String getPedidos(int numero, String atributo) throws InvalidAttribute, AtributeDontExist, OrderNotFound, PedidoNotFound {
-        if (atributo == null || atributo.isEmpty()) {
-            throw new InvalidAttribute();
-        } else if (pedidos.stream().noneMatch(p -> p.numero == numero)) {
-            throw new OrderNotFound();
-        }
+        try (StripedLocks.Secao secao = travas.empresa(empresaDoPedido(numero))) {
+            if (atributo == null || atributo.isEmpty()) {
+                throw new InvalidAttribute();
+            }
+            Pedido p = buscarPedido(numero);
+            if (p == null) {
+                throw new OrderNotFound();
+            }
 
-        Pedido p = getPedido(numero);
-        switch (atributo.toLowerCase()) {
-            case "id", "numero":
-                return p.numero + "";
-            case "cliente":
-                int idCliente = p.cliente;
-                String nomeCliente = users.stream().filter(u -> u.id == idCliente).map(u -> u.nome).findFirst().orElse("Cliente não encontrado");
-                return nomeCliente;
-            case "produtos":
-                StringBuilder produtos = new StringBuilder("{[");
-                for (Produto prod : p.produtos) {
-                    produtos.append(prod.nome).append(", ");
-                }
-                if (produtos.length() > 2) {
-                    // Remover a última vírgula e espaço extra
-                    produtos.setLength(produtos.length() - 2);
-                }
-                produtos.append("]}");
-                return produtos.toString();
-            case "estado":
-                return p.estado;
-            case "valor", "preço", "preco":
-                String valor = String.format("%.2f", p.valor());
-                valor = valor.replace(",", ".");
-                return valor;
-            case "empresa":
-                int idEmpresa = p.empresa;
-                String nomeEmpresa = empresas.stream().filter(r -> r.id == idEmpresa).map(r -> r.nome).findFirst().orElse("Empresa não encontrada");
-                return nomeEmpresa;
-            default:
-                throw new AtributeDontExist();
+            switch (atributo.toLowerCase()) {
+                case "id", "numero":
+                    return p.numero + "";
+                case "cliente":
+                    int idCliente = p.cliente;
+                    String nomeCliente = nomeDoUsuario(idCliente, "Cliente não encontrado");
+                    return nomeCliente;
+                case "produtos":
+                    StringBuilder produtos = new StringBuilder("{[");
+                    for (Produto prod : p.produtos) {
+                        produtos.append(prod.nome).append(", ");
+                    }
+                    if (produtos.length() > 2) {
+                        // Remover a última vírgula e espaço extra
+                        produtos.setLength(produtos.length() - 2);
+                    }
+                    produtos.append("]}");
+                    return produtos.toString();
+                case "estado":
+                    return p.estado.texto;
+                case "valor", "preço", "preco":
+                    String valor = String.format("%.2f", p.valor());
+                    valor = valor.replace(",", ".");
+                    return valor;
+                case "empresa":
+                    int idEmpresa = p.empresa;
+                    String nomeEmpresa = Optional.ofNullable(empresasPorId.buscar(idEmpresa)).map(r -> r.nome).orElse("Empresa não encontrada");
+                    return nomeEmpresa;
+                default:
+                    throw new AtributeDontExist();
+            }
         }
     }
 
     public void fecharPedido(int numero) throws OrderNotFound {
-        Pedido pedido = pedidos.stream().filter(p -> p.numero == numero).findFirst().orElseThrow(OrderNotFound::new);
-        pedidos.remove(pedido);
-        pedido.estado = "preparando";
-        pedidos.add(pedido);
-        System.out.println(pedido);
+        try (StripedLocks.Secao secao = travas.empresa(empresaDoPedido(numero))) {
+            Pedido pedido = Optional.ofNullable(buscarPedido(numero)).orElseThrow(OrderNotFound::new);
+            // Fechar de novo um pedido que ja saiu de "aberto" nao muda nada.
+            if (!pedido.avancar(EstadoPedido.ABERTO, EstadoPedido.PREPARANDO)) {
+                return;
+            }
+            moverParaOFim(pedido);
+            registrarPedidoFechado(pedido);
+            System.out.println(pedido);
+        }
     }
 
     public void removerPedido(int numero) throws PedidoNotFound {
-        Pedido p = getPedido(numero);
-        pedidos.remove(p);
+        try (StripedLocks.Secao secao = travas.empresa(empresaDoPedido(numero))) {
+            Pedido p = paraAlterar(getPedido(numero));
+            retirarPedido(p);
+            registrarPedidoRemovido(p.numero);
+        }
     }
 
     public void removerProduto(int pedido, String produto) throws OrderNotFound, InvalidProduct, ProductNotFound, CannotRemoveProductOrderClosed, PedidoNotFound {
-        if (pedidos.stream().anyMatch(p -> p.numero == pedido && p.estado.equals("preparando"))) {
-            throw new CannotRemoveProductOrderClosed();
-        } else if(produto == null || produto.isEmpty()) {
-            throw new InvalidProduct();
-        } else if (pedidos.stream().noneMatch(p -> p.numero == pedido && p.produtos.stream().anyMatch(prod -> prod.nome.equals(produto)))) {
-            throw new ProductNotFound();
-        } else if (pedidos.stream().anyMatch(p -> p.numero == pedido && p.estado.equals("preparando"))) {
-            throw new CannotRemoveProductOrderClosed();
-        } else if (pedidos.stream().noneMatch(p -> p.numero == pedido)) {
-            throw new OrderNotFound();
-        }
+        try (StripedLocks.Secao secao = travas.empresa(empresaDoPedido(pedido))) {
+            Pedido existente = buscarPedido(pedido);
+            if (existente != null && existente.estado != EstadoPedido.ABERTO) {
+                throw new CannotRemoveProductOrderClosed();
+            } else if(produto == null || produto.isEmpty()) {
+                throw new InvalidProduct();
+            }
+            int linha = existente == null ? -1 : linhaDoProduto(existente, produto);
+            if (linha < 0) {
+                throw new ProductNotFound();
+            }
 
+            Pedido p = paraAlterar(existente);
+            p.produtos.remove(linha);
+            registrar(p);
+        }
+    }
 
-        Pedido p = getPedido(pedido);
-        p.produtos.stream().filter(prod -> prod.nome.equals(produto)).findFirst().ifPresent(p.produtos::remove);
+    // Posicao do primeiro item do pedido com o nome, ou -1; os itens de um pedido sao poucos,
+    // entao uma passada basta (o indice por nome fica com os catalogos das empresas).
+    private static int linhaDoProduto(Pedido pedido, String nome) {
+        for (int i = 0; i < pedido.produtos.size(); i++) {
+            if (pedido.produtos.get(i).nome.equals(nome)) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     //Mercado
     public int criarEmpresa(String tipoEmpresa, int dono, String nome, String endereco, String abre, String fecha, String tipoMercado) throws NameAlreadyExist, NameAndAddresAlreadyExist, UserCantCreate, InvalidTimeFormat, InvalidTime, EnterpriseNotAMarket, InvalidMarketType, InvalidName, InvalidEnterpriseAddress, InvalidEnterpriseType {
-        if (tipoEmpresa == null || tipoEmpresa.isEmpty()) {
-            throw new InvalidEnterpriseType();
-        }
+        try (StripedLocks.Secao secao = travas.exclusiva()) {
+            if (tipoEmpresa == null || tipoEmpresa.isEmpty()) {
+                throw new InvalidEnterpriseType();
+            }
 
-        if (endereco == null || endereco.isEmpty()) {
-            throw new InvalidEnterpriseAddress();
-        }
+            if (endereco == null || endereco.isEmpty()) {
+                throw new InvalidEnterpriseAddress();
+            }
 
-        if (tipoEmpresa.equals("mercado")) {
-            clock(abre, fecha);
+            if (tipoEmpresa.equals("mercado")) {
+                clock(abre, fecha);
 
-            if (users.stream().noneMatch(u -> u.id == dono && (u.isWhatType() == "Dono"))) {
-                throw new UserCantCreate();
-            }
+                if (!ehDono(dono)) {
+                    throw new UserCantCreate();
+                }
 
-            if (nome == null || nome.isEmpty()) {
-                throw new InvalidName();
-            }
+                if (nome == null || nome.isEmpty()) {
+                    throw new InvalidName();
+                }
 
-            if (tipoMercado == null || tipoMercado.isEmpty()) {
-                throw new InvalidMarketType();
-            }
+                if (tipoMercado == null || tipoMercado.isEmpty()) {
+                    throw new InvalidMarketType();
+                }
 
-            if (empresas.stream().anyMatch(r -> r.nome.equals(nome) && r.idDono != dono)) {
-                throw new NameAlreadyExist();
-            }
+                if (empresasPorNome.usadoPorOutroDono(nome, dono)) {
+                    throw new NameAlreadyExist();
+                }
 
-            if (empresas.stream().anyMatch(r -> r.nome.equals(nome) && r.endereco.equals(endereco) && r.idDono == dono)) {
-                throw new NameAndAddresAlreadyExist();
-            }
+                if (empresasPorNome.contem(nome, endereco)) {
+                    throw new NameAndAddresAlreadyExist();
+                }
 
-            Mercado novoMercado = new Mercado(dono, nome, endereco, abre, fecha, tipoMercado);
-            empresas.add(novoMercado);
-            return novoMercado.id;
-        } else {
-            throw new EnterpriseNotAMarket();
+                Mercado novoMercado = new Mercado(dono, nome, endereco, abre, fecha, tipoMercado);
+                empresas.add(novoMercado);
+                indexar(novoMercado);
+                registrar(novoMercado);
+                return novoMercado.id;
+            } else {
+                throw new EnterpriseNotAMarket();
+            }
         }
     }
 
     public void alterarFuncionamento(int mercado, String abre, String fecha) throws EnterpriseNotRegistered, InvalidTimeFormat, InvalidTime, InvalidMarket {
-        if (empresas.stream().noneMatch(m -> m.id == mercado)) {
-            throw new EnterpriseNotRegistered();
-        }
+        try (StripedLocks.Secao secao = travas.exclusiva()) {
+            if (!empresasPorId.contem(mercado)) {
+                throw new EnterpriseNotRegistered();
+            }
 
-        clock(abre, fecha);
+            clock(abre, fecha);
 
-        Enterprise empresa = empresas.stream().filter(n -> n.id == mercado).findFirst().get();
-        if (empresa.isWhatType().equals("Mercado")) {
-            Mercado m = (Mercado) empresa;
-            m.abre = abre;
-            m.fecha = fecha;
-        } else {
-            throw new InvalidMarket();
+            Enterprise empresa = empresasPorId.buscar(mercado);
+            if (empresa.isWhatType().equals("Mercado")) {
+                Mercado m = (Mercado) empresa;
+                m.abre = abre;
+                m.fecha = fecha;
+                registrar(m);
+            } else {
+                throw new InvalidMarket();
+            }
         }
     }
 
     // Farmácia
     public int criarEmpresa(String tipoEmpresa, int dono, String nome, String endereco, Boolean aberto24Horas, int numeroFuncionarios) throws NameAndAddresAlreadyExist, NameAlreadyExist, UserCantCreate, InvalidName, InvalidEnterpriseType, InvalidEnterpriseAddress {
-        if (tipoEmpresa == null || tipoEmpresa.isEmpty()) {
-            throw new InvalidEnterpriseType();
-        }
-
-        if (endereco == null || endereco.isEmpty()) {
-            throw new InvalidEnterpriseAddress();
-        }
-        if (tipoEmpresa.equals("farmacia")) {
-            if (users.stream().noneMatch(u -> u.id == dono && (u.isWhatType().equals("Dono")))) {
-                throw new UserCantCreate();
+        try (StripedLocks.Secao secao = travas.exclusiva()) {
+            if (tipoEmpresa == null || tipoEmpresa.isEmpty()) {
+                throw new InvalidEnterpriseType();
             }
 
-            if (nome == null || nome.isEmpty()) {
-                throw new InvalidName();
+            if (endereco == null || endereco.isEmpty()) {
+                throw new InvalidEnterpriseAddress();
             }
+            if (tipoEmpresa.equals("farmacia")) {
+                if (!ehDono(dono)) {
+                    throw new UserCantCreate();
+                }
 
-            if (empresas.stream().anyMatch(r -> r.nome.equals(nome) && r.idDono != dono)) {
-                throw new NameAlreadyExist();
-            }
+                if (nome == null || nome.isEmpty()) {
+                    throw new InvalidName();
+                }
 
-            if (empresas.stream().anyMatch(r -> r.nome.equals(nome) && r.endereco.equals(endereco) && r.idDono == dono)) {
-                throw new NameAndAddresAlreadyExist();
-            }
+                if (empresasPorNome.usadoPorOutroDono(nome, dono)) {
+                    throw new NameAlreadyExist();
+                }
 
-            Farmacia novaFarmacia = new Farmacia(dono, nome, endereco, aberto24Horas, numeroFuncionarios);
-            empresas.add(novaFarmacia);
-            return novaFarmacia.id;
-        } else {
-            throw new Error("Empresa não é uma farmacia");
+                if (empresasPorNome.contem(nome, endereco)) {
+                    throw new NameAndAddresAlreadyExist();
+                }
+
+                Farmacia novaFarmacia = new Farmacia(dono, nome, endereco, aberto24Horas, numeroFuncionarios);
+                empresas.add(novaFarmacia);
+                indexar(novaFarmacia);
+                registrar(novaFarmacia);
+                return novaFarmacia.id;
+            } else {
+                throw new Error("Empresa não é uma farmacia");
+            }
         }
     }
 
     // Entregador
     public void criarUsuario(String nome, String email, String senha, String endereco, String veiculo, String placa) throws EmailAlreadyExist, InvalidName, PlacaAlreadyExist, InvalidPlaque, InvalidVehicle, InvalidEmail, InvalidAddress, InvalidPassword {
-        verifyData(nome, email, senha, endereco);
+        try (StripedLocks.Secao secao = travas.exclusiva()) {
+            verifyData(nome, email, senha, endereco);
 
-        if (veiculo == null || veiculo.isEmpty()) {
-            throw new InvalidVehicle();
-        }
+            if (veiculo == null || veiculo.isEmpty()) {
+                throw new InvalidVehicle();
+            }
 
-        if (placa == null || placa.isEmpty() || users.stream().anyMatch(u -> u.isWhatType().equals("Entregador") && ((Entregador) u).placa.equals(placa))) {
-            throw new InvalidPlaque();
-        }
+            if (placa == null || placa.isEmpty() || entregadoresPorPlaca.containsKey(placa)) {
+                throw new InvalidPlaque();
+            }
 
-        if (users.stream().anyMatch(u -> u.email.equals(email))) {
-            throw new EmailAlreadyExist();
-        }
+            if (usersPorEmail.containsKey(email)) {
+                throw new EmailAlreadyExist();
+            }
 
-        User newUser = new Entregador(nome, email, senha, endereco, veiculo, placa);
-        users.add(newUser);
+            User newUser = new Entregador(nome, email, senha, endereco, veiculo, placa);
+            users.add(newUser);
+            indexar(newUser);
+            registrar(newUser);
+        }
     }
 
     public void cadastrarEntregador(Integer empresaId, Integer entregadorId) throws UserNotRegistered, RestauranteNotFound, UserNotDelivery {
-        Enterprise empresa = getEmpresa(empresaId);
-        User entregador = getUser(entregadorId);
-
-        if (entregador.isWhatType().equals("Entregador")) {
-            empresas.stream().filter(e -> e.id == empresaId).findFirst().get().entregadores.add(entregadorId);
-            ((Entregador) users.stream().filter(u -> u.id == entregadorId).findFirst().get()).empresas.add(empresaId);
-        } else {
-            throw new UserNotDelivery();
+        try (StripedLocks.Secao secao = travas.exclusiva()) {
+            Enterprise empresa = getEmpresa(empresaId);
+            User entregador = getUser(entregadorId);
+
+            if (entregador.isWhatType().equals("Entregador")) {
+                // Cadastrar de novo o mesmo entregador na empresa nao muda nada.
+                if (entregadoresEEmpresas.vincular(empresa, (Entregador) entregador)) {
+                    empresa.entregadores.add(entregadorId);
+                    ((Entregador) entregador).empresas.add(empresaId);
+                    registrar(empresa);
+                    registrar(entregador);
+                }
+            } else {
+                throw new UserNotDelivery();
+            }
         }
     }
 
     public String getEntregadores(Integer empresaId) throws RestauranteNotFound {
-        ArrayList<String> emails = new ArrayList<String>();
-        Enterprise empresa = getEmpresa(empresaId);
-        for (Integer e: empresa.entregadores) {
-            for (User u: users) {
-                if (u.id == e) {
-                    emails.add(u.email);
-                }
+        try (StripedLocks.Secao secao = travas.leitura()) {
+            ArrayList<String> emails = new ArrayList<String>();
+            Enterprise empresa = getEmpresa(empresaId);
+            for (Entregador e : entregadoresEEmpresas.entregadores(empresa.id)) {
+                emails.add(e.email);
             }
+            return "{" + emails.toString() + "}";
         }
-        return "{" + emails.toString() + "}";
     }
 
     public String getEmpresas(Integer entregadorId) throws UserNotRegistered, UserNotDelivery {
-        ArrayList<ArrayList<String>> dados = new ArrayList<ArrayList<String>>();
-        User entregador = getUser(entregadorId);
-
-        if (entregador.isWhatType().equals("Entregador")) {
-            for (Integer e : ((Entregador) entregador).empresas) {
-                Enterprise emp = empresas.stream().filter(empresa -> empresa.id == e).findFirst().get();
-                ArrayList<String> dadosUser = new ArrayList<>();
-                dadosUser.add(emp.nome);
-                dadosUser.add(emp.endereco);
-                dados.add(dadosUser);
-            }
-            return "{" + dados.toString() + "}";
-        } else {
-            throw new UserNotDelivery();
+        try (StripedLocks.Secao secao = travas.leitura()) {
+            ArrayList<ArrayList<String>> dados = new ArrayList<ArrayList<String>>();
+            User entregador = getUser(entregadorId);
+
+            if (entregador.isWhatType().equals("Entregador")) {
+                for (Enterprise emp : entregadoresEEmpresas.empresas(entregador.id)) {
+                    ArrayList<String> dadosUser = new ArrayList<>();
+                    dadosUser.add(emp.nome);
+                    dadosUser.add(emp.endereco);
+                    dados.add(dadosUser);
+                }
+                return "{" + dados.toString() + "}";
+            } else {
+                throw new UserNotDelivery();
+            }
         }
     }
 
@@ -781,145 +1828,171 @@ public class Sistema {
     }
 
     public void liberarPedido(Integer numero) throws PedidoNotFound, RequestAlreadyDone, RequestNotPreparing {
-        Pedido pedido = getPedido(numero);
-        if (pedido == null) {
-            throw new PedidoNotFound();
-        } else if (pedido.estado.equals("pronto")) {
-            throw new RequestAlreadyDone();
-        } else if (!pedido.estado.equals("preparando")) {
-            throw new RequestNotPreparing();
-        } else {
-            try {
-                pedidos.stream().filter(p -> p.numero == pedido.numero).findFirst().get().estado = "pronto";
-            } catch (Exception e) {
+        try (StripedLocks.Secao secao = travas.empresa(empresaDoPedido(numero))) {
+            Pedido pedido = getPedido(numero);
+            if (pedido == null) {
                 throw new PedidoNotFound();
             }
+            if (!pedido.avancar(EstadoPedido.PREPARANDO, EstadoPedido.PRONTO)) {
+                if (pedido.estado == EstadoPedido.PRONTO) {
+                    throw new RequestAlreadyDone();
+                }
+                throw new RequestNotPreparing();
+            }
+            atualizarDespacho(pedido);
+            registrar(pedido);
         }
     }
 
     public Integer obterPedido(Integer entregadorId) throws PedidoNotFound, UserNotRegistered, UserNotDelivery, NoEnterprises {
-        User entregador = getUser(entregadorId);
-        if (!entregador.isWhatType().equals("Entregador")) {
-            throw new UserNotDelivery();
-        }
-
-        ArrayList<Integer> empresasEnt = ((Entregador) entregador).empresas;
-        if (empresasEnt.isEmpty()) {
-            throw new NoEnterprises();
-        }
-        Pedido deFarmacia = pedidos.stream()
-                .filter(p -> empresas.stream()
-                        .anyMatch(e -> e.id == p.empresa && e.isWhatType().equals("Farmacia")))
-                .filter(p -> empresasEnt.contains(p.empresa))
-                .filter(p -> p.estado.equals("pronto"))
-                .findFirst()
-                .orElse(null);
+        try (StripedLocks.Secao secao = travas.leitura()) {
+            User entregador = getUser(entregadorId);
+            if (!entregador.isWhatType().equals("Entregador")) {
+                throw new UserNotDelivery();
+            }
 
-        if (deFarmacia != null) {
-            return deFarmacia.numero;
-        }
+            ArrayList<Integer> empresasEnt = ((Entregador) entregador).empresas;
+            if (empresasEnt.isEmpty()) {
+                throw new NoEnterprises();
+            }
+            // Pedidos de farmacia tem prioridade; dentro de cada grupo, o primeiro na ordem da lista de pedidos.
+            Pedido deFarmacia;
+            Pedido normal;
+            tabelas.readLock().lock();
+            try {
+                deFarmacia = despacho.proximo(empresasEnt,
+                        e -> empresasPorId.contem(e) && empresasPorId.buscar(e).isWhatType().equals("Farmacia"));
+                normal = deFarmacia == null ? despacho.proximo(empresasEnt, e -> true) : null;
+            } finally {
+                tabelas.readLock().unlock();
+            }
 
-        Pedido normal = pedidos.stream().filter(p -> empresasEnt.contains(p.empresa) && p.estado.equals("pronto")).findFirst().orElse(null);
+            if (deFarmacia != null) {
+                return deFarmacia.numero;
+            }
 
-        if (normal != null) {
-            return normal.numero;
-        } else {
-            throw new PedidoNotFound();
+            if (normal != null) {
+                return normal.numero;
+            } else {
+                throw new PedidoNotFound();
+            }
         }
     }
 
     public Integer criarEntrega(Integer pedidoId, Integer entregadorId, String destino) throws PedidoNotFound, PedidoAlreadySent, UserNotRegistered, UserNotDelivery, RestauranteNotFound, BusyDelivery, InvalidDelivery, PedidoNotReady {
-        Pedido pedido = getPedido(pedidoId);
-        if (pedido.estado.equals("liberando")) {
-            throw new PedidoAlreadySent();
-        }
-        if (!pedido.estado.equals("pronto")) {
-            throw new PedidoNotReady();
-        }
-
-        if (destino == null || destino.trim().isEmpty()) {
-            destino = users.stream().filter(u -> u.id == pedido.cliente).findFirst().get().endereco;
-        }
+        // Sem faixas: o entregador e o pedido sao reservados por compare-and-set. Entre os entregadores
+        // disputando o mesmo pedido pronto so um consegue; os outros recebem "nao esta pronto".
+        try (StripedLocks.Secao secao = travas.leitura()) {
+            Pedido pedido = getPedido(pedidoId);
+            if (pedido.estado != EstadoPedido.PRONTO) {
+                throw new PedidoNotReady();
+            }
 
-        User entregador = getUser(entregadorId);
-        if (!entregador.isWhatType().equals("Entregador")) {
-            throw new InvalidDelivery();
-        }
+            if (destino == null || destino.trim().isEmpty()) {
+                destino = Optional.ofNullable(usersPorId.buscar(pedido.cliente)).get().endereco;
+            }
 
-        Entregador ent = (Entregador) entregador;
-        if (ent.ocupado) {
-            throw new BusyDelivery();
-        }
+            User entregador = getUser(entregadorId);
+            if (!entregador.isWhatType().equals("Entregador")) {
+                throw new InvalidDelivery();
+            }
 
-        User cliente = getUser(pedido.cliente);
-        Enterprise empresa = getEmpresa(pedido.empresa);
-        pedidos.stream().filter(p -> p.numero == pedidoId).findFirst().get().estado = "entregando";
-        users.stream()
-                .filter(u -> u.id == entregadorId)
-                .findFirst()
-                .ifPresent(u -> {
-                    if (u.isWhatType().equals("Entregador")) {
-                        Entregador entregad = (Entregador) u;
-                        entregad.ocupado = true;
-                    }
-                });
-        ArrayList<String> produtos = new ArrayList<>();
-        for (Produto p: pedido.produtos) {
-            produtos.add(p.nome);
+            Entregador ent = (Entregador) entregador;
+            User cliente = getUser(pedido.cliente);
+            Enterprise empresa = getEmpresa(pedido.empresa);
+            if (!ent.ocupar()) {
+                throw new BusyDelivery();
+            }
+            if (!pedido.avancar(EstadoPedido.PRONTO, EstadoPedido.ENTREGANDO)) {
+                ent.desocupar();
+                throw new PedidoNotReady();
+            }
+            atualizarDespacho(pedido);
+            ArrayList<String> produtos = new ArrayList<>();
+            for (Produto p: pedido.produtos) {
+                produtos.add(p.nome);
+            }
+            Entrega entrega = new Entrega(cliente.nome, empresa.nome, pedido.numero, entregadorId, destino, produtos);
+            adicionarEntrega(entrega);
+            registrar(pedido);
+            registrar(ent);
+            registrar(entrega);
+            return entrega.id;
         }
-        Entrega entrega = new Entrega(cliente.nome, empresa.nome, pedido.numero, entregadorId, destino, produtos);
-        entregas.add(entrega);
-        return entrega.id;
     }
 
     public String getEntrega(Integer id, String atributo) throws EntregaNotFound, InvalidAttribute, AttributeNotFound {
-        if (atributo == null) {
-            throw new InvalidAttribute();
-        } else if (atributo.isEmpty()) {
-            throw new InvalidAttribute();
-        }
-        Entrega entrega = entregas.stream().filter(e -> e.id == id).findFirst().orElse(null);
-        if (entrega != null) {
-            return switch (atributo) {
-              case "id" -> "" + entrega.id;
-              case "cliente" -> entrega.cliente;
-              case "empresa" -> entrega.empresa;
-              case "entregador" -> users.stream().filter(u -> u.id == entrega.entregador).findFirst().get().nome;
-              case "destino" -> entrega.destino;
-              case "pedido" -> "" + entrega.pedido;
-              case "produtos" -> "{" + entrega.produtos.toString() + "}";
-
-              default -> throw new AttributeNotFound();
-            };
-        } else {
-            throw new EntregaNotFound();
+        try (StripedLocks.Secao secao = travas.leitura()) {
+            if (atributo == null) {
+                throw new InvalidAttribute();
+            } else if (atributo.isEmpty()) {
+                throw new InvalidAttribute();
+            }
+            Entrega entrega = buscarEntrega(id);
+            if (entrega != null) {
+                return switch (atributo) {
+                  case "id" -> "" + entrega.id;
+                  case "cliente" -> entrega.cliente;
+                  case "empresa" -> entrega.empresa;
+                  case "entregador" -> Optional.ofNullable(usersPorId.buscar(entrega.entregador)).get().nome;
+                  case "destino" -> entrega.destino;
+                  case "pedido" -> "" + entrega.pedido;
+                  case "produtos" -> "{" + entrega.produtos.toString() + "}";
+
+                  default -> throw new AttributeNotFound();
+                };
+            } else {
+                throw new EntregaNotFound();
+            }
         }
     }
 
     public Integer getIdEntrega(Integer pedidoId) throws EntregaIdNotFound {
-        try {
-            Integer entId = entregas.stream().filter(e -> Objects.equals(e.pedido, pedidoId)).findFirst().get().id;
-            return entId;
-        } catch (Exception e) {
-            throw new EntregaIdNotFound();
+        try (StripedLocks.Secao secao = travas.leitura()) {
+            Entrega quente;
+            tabelas.readLock().lock();
+            try {
+                quente = pedidoId != null ? entregaPorPedido.buscar(pedidoId)
+                        : entregas.stream().filter(e -> e.pedido == null).findFirst().orElse(null);
+            } finally {
+                tabelas.readLock().unlock();
+            }
+            if (quente != null) {
+                return quente.id;
+            }
+            Integer arquivada = historico != null && pedidoId != null ? historico.entregaDoPedido(pedidoId) : null;
+            if (arquivada == null) {
+                throw new EntregaIdNotFound();
+            }
+            return arquivada;
         }
     }
 
     public void entregar(Integer entregaId) throws EntregaNotFound {
-        Entrega entrega = entregas.stream().filter(e -> e.id == entregaId).findFirst().orElse(null);
-        if (entrega == null) {
-            throw new EntregaNotFound();
-        }
-
-        pedidos.stream().filter(p -> p.numero == entrega.pedido).findFirst().get().estado = "entregue";
-        users.stream()
-                .filter(u -> u.id == entrega.entregador)
-                .findFirst()
-                .ifPresent(u -> {
-                    if (u.isWhatType().equals("Entregador")) {
-                        Entregador entregad = (Entregador) u;
-                        entregad.ocupado = false;
-                    }
-                });
+        try (StripedLocks.Secao secao = travas.leitura()) {
+            Entrega entrega = buscarEntrega(entregaId);
+            if (entrega == null) {
+                throw new EntregaNotFound();
+            }
+
+            Pedido pedido = Optional.ofNullable(buscarPedido(entrega.pedido)).get();
+            // So um entregar conclui a entrega; repetido, nao solta o entregador que ja pode estar em outra.
+            if (!pedido.avancar(EstadoPedido.ENTREGANDO, EstadoPedido.ENTREGUE)) {
+                return;
+            }
+            registrar(pedido);
+            Optional.ofNullable(usersPorId.buscar(entrega.entregador))
+                    .ifPresent(u -> {
+                        if (u.isWhatType().equals("Entregador")) {
+                            Entregador entregad = (Entregador) u;
+                            entregad.desocupar();
+                            registrar(entregad);
+                        }
+                    });
+            if (historico != null) {
+                arquivar(pedido);
+                arquivar(entrega);
+            }
+        }
     }
 }
\ No newline at end of file
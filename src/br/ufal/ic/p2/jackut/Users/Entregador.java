@@ -1,13 +1,25 @@
 package br.ufal.ic.p2.jackut.Users;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.ArrayList;
 
 // nome=<String> email=<String> senha=<String> endereco=<String> veiculo=<String> endereco=<placa>
 public class Entregador extends User {
+    private static final VarHandle OCUPADO;
+
+    static {
+        try {
+            OCUPADO = MethodHandles.lookup().findVarHandle(Entregador.class, "ocupado", Boolean.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     public String veiculo;
     public String placa;
     public ArrayList<Integer> empresas;
-    public Boolean ocupado;
+    public volatile Boolean ocupado;
 
     public Entregador(String nome, String email, String senha, String endereco, String veiculo, String placa) {
         super(nome, email, senha, endereco);
@@ -17,8 +29,31 @@ public class Entregador extends User {
         this.ocupado = false;
     }
 
+    // Reserva o entregador para uma entrega; false se ele ja estava ocupado.
+    public boolean ocupar() {
+        Boolean atual;
+        do {
+            atual = ocupado;
+            if (Boolean.TRUE.equals(atual)) {
+                return false;
+            }
+        } while (!OCUPADO.compareAndSet(this, atual, Boolean.TRUE));
+        return true;
+    }
+
+    public void desocupar() {
+        ocupado = false;
+    }
+
     @Override
     public String isWhatType() {
         return "Entregador";
     }
+
+    @Override
+    public Entregador copia() {
+        Entregador copia = (Entregador) super.copia();
+        copia.empresas = new ArrayList<>(empresas);
+        return copia;
+    }
 }
@@ -1,7 +1,9 @@
 package br.ufal.ic.p2.jackut.Users;
 
-public class User {
-    private static int contador = 0;
+import br.ufal.ic.p2.jackut.Concurrency.IdSequence;
+
+public class User implements Cloneable {
+    public static final IdSequence IDS = new IdSequence(0);
     public int id;
     public String nome;
     public String email;
@@ -9,7 +11,7 @@ public class User {
     public String endereco;
 
     public User(String nome, String email, String senha, String endereco) {
-        this.id = contador++;
+        this.id = IDS.proximo();
         this.nome = nome;
         this.email = email;
         this.senha = senha;
@@ -20,6 +22,15 @@ public class User {
         return "User";
     }
 
+    // Copia sem passar pelo construtor, para nao consumir um id novo.
+    public User copia() {
+        try {
+            return (User) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
 }
 
 
@@ -4,6 +4,10 @@ import br.ufal.ic.p2.jackut.Enterprises.Enterprise;
 import br.ufal.ic.p2.jackut.Enterprises.Farmacia;
 import br.ufal.ic.p2.jackut.Enterprises.Mercado;
 import br.ufal.ic.p2.jackut.Enterprises.Restaurante;
+import br.ufal.ic.p2.jackut.Persistence.AtomicFileWriter;
+import br.ufal.ic.p2.jackut.Persistence.ParallelLoader;
+import br.ufal.ic.p2.jackut.Persistence.XMLScanner;
+import br.ufal.ic.p2.jackut.Persistence.XMLWriter;
 import br.ufal.ic.p2.jackut.Users.Cliente;
 import br.ufal.ic.p2.jackut.Users.Dono;
 import br.ufal.ic.p2.jackut.Users.Entregador;
@@ -12,427 +16,374 @@ import br.ufal.ic.p2.jackut.Users.User;
 import java.io.*;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
 
+// Os salvar* gravam num temporario e trocam o arquivo com rename atomico (AtomicFileWriter),
+// entao uma queda no meio da escrita nunca deixa um XML pela metade.
 public class XMLUtils {
-    public static void salvarUsuarios(List<User> users, String fileName) {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(fileName))) {
-            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
-            writer.write("<users>\n");
+    public static void salvarUsuarios(List<User> users, String fileName) throws IOException {
+        try (AtomicFileWriter arquivo = AtomicFileWriter.abrir(fileName)) {
+            XMLWriter xml = new XMLWriter(arquivo);
+            xml.declaracao();
+            xml.abrir("users");
 
             for (User user : users) {
                 if (user.isWhatType().equals("Cliente")) {
-                    Cliente cliente = (Cliente) user;
-                    writer.write("    <cliente>\n");
-                    writer.write("        <id>" + cliente.id + "</id>\n");
-                    writer.write("        <nome>" + cliente.nome + "</nome>\n");
-                    writer.write("        <email>" + cliente.email + "</email>\n");
-                    writer.write("        <senha>" + cliente.senha + "</senha>\n");
-                    writer.write("        <endereco>" + cliente.endereco + "</endereco>\n");
-                    writer.write("    </cliente>\n");
+                    xml.abrir("cliente");
+                    xml.campo("id", user.id);
+                    xml.campo("nome", user.nome);
+                    xml.campo("email", user.email);
+                    xml.campo("senha", user.senha);
+                    xml.campo("endereco", user.endereco);
+                    xml.fechar("cliente");
                 } else if (user.isWhatType().equals("Dono")) {
                     Dono dono = (Dono) user;
-                    writer.write("    <dono>\n");
-                    writer.write("        <id>" + dono.id + "</id>\n");
-                    writer.write("        <nome>" + dono.nome + "</nome>\n");
-                    writer.write("        <email>" + dono.email + "</email>\n");
-                    writer.write("        <senha>" + dono.senha + "</senha>\n");
-                    writer.write("        <cpf>" + dono.cpf + "</cpf>\n");
-                    writer.write("        <endereco>" + dono.endereco + "</endereco>\n");
-                    writer.write("    </dono>\n");
+                    xml.abrir("dono");
+                    xml.campo("id", dono.id);
+                    xml.campo("nome", dono.nome);
+                    xml.campo("email", dono.email);
+                    xml.campo("senha", dono.senha);
+                    xml.campo("cpf", dono.cpf);
+                    xml.campo("endereco", dono.endereco);
+                    xml.fechar("dono");
                 } else if (user.isWhatType().equals("Entregador")) {
                     Entregador entregador = (Entregador) user;
-                    writer.write("    <entregador>\n");
-                    writer.write("        <id>" + entregador.id + "</id>\n");
-                    writer.write("        <nome>" + entregador.nome + "</nome>\n");
-                    writer.write("        <email>" + entregador.email + "</email>\n");
-                    writer.write("        <senha>" + entregador.senha + "</senha>\n");
-                    writer.write("        <endereco>" + entregador.endereco + "</endereco>\n");
-                    writer.write("        <veiculo>" + entregador.veiculo + "</veiculo>\n");
-                    writer.write("        <placa>" + entregador.placa + "</placa>\n");
-                    writer.write("        <empresas>\n");
+                    xml.abrir("entregador");
+                    xml.campo("id", entregador.id);
+                    xml.campo("nome", entregador.nome);
+                    xml.campo("email", entregador.email);
+                    xml.campo("senha", entregador.senha);
+                    xml.campo("endereco", entregador.endereco);
+                    xml.campo("veiculo", entregador.veiculo);
+                    xml.campo("placa", entregador.placa);
+                    xml.abrir("empresas");
                     for (int empresa : entregador.empresas) {
-                        writer.write("            <empresa>" + empresa + "</empresa>\n");
+                        xml.campo("empresa", empresa);
                     }
-                    writer.write("        </empresas>\n");
-                    writer.write("        <ocupado>" + entregador.ocupado + "</ocupado>\n");
-                    writer.write("    </entregador>\n");
+                    xml.fechar("empresas");
+                    xml.campo("ocupado", entregador.ocupado);
+                    xml.fechar("entregador");
                 }
             }
 
-            writer.write("</users>\n");
-
-        } catch (IOException e) {
-            e.printStackTrace();
+            xml.fechar("users");
+            xml.flush();
+            arquivo.concluir();
         }
     }
 
-    public static void salvarEmpresas(List<Enterprise> empresas, String fileName) {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(fileName))) {
-            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
-            writer.write("<empresas>\n");
+    public static void salvarEmpresas(List<Enterprise> empresas, String fileName) throws IOException {
+        try (AtomicFileWriter arquivo = AtomicFileWriter.abrir(fileName)) {
+            XMLWriter xml = new XMLWriter(arquivo);
+            xml.declaracao();
+            xml.abrir("empresas");
 
             for (Enterprise empresa : empresas) {
                 if (empresa.isWhatType().equals("Mercado")) {
                     Mercado mercado = (Mercado) empresa;
-                    writer.write("    <mercado>\n");
-                    writer.write("        <id>" + mercado.id + "</id>\n");
-                    writer.write("        <idDono>" + mercado.idDono + "</idDono>\n");
-                    writer.write("        <nome>" + mercado.nome + "</nome>\n");
-                    writer.write("        <endereco>" + mercado.endereco + "</endereco>\n");
-                    writer.write("        <produtos>\n");
-                    for (Produto produto : mercado.produtos) {
-                        writer.write("            <produto>\n");
-                        writer.write("                <numero>" + produto.numero + "</numero>\n");
-                        writer.write("                <nome>" + produto.nome + "</nome>\n");
-                        writer.write("                <valor>" + produto.valor + "</valor>\n");
-                        writer.write("                <categoria>" + produto.categoria + "</categoria>\n");
-                        writer.write("            </produto>\n");
-                    }
-                    writer.write("        </produtos>\n");
-                    writer.write("        <entregadores>\n");
-                    for (int entregador : mercado.entregadores) {
-                        writer.write("            <entregador>" + entregador + "</entregador>\n");
-                    }
-                    writer.write("        </entregadores>\n");
-                    writer.write("        <abre>" + mercado.abre + "</abre>\n");
-                    writer.write("        <fecha>" + mercado.fecha + "</fecha>\n");
-                    writer.write("        <tipoMercado>" + mercado.tipoMercado + "</tipoMercado>\n");
-                    writer.write("    </mercado>\n");
+                    xml.abrir("mercado");
+                    xml.campo("id", mercado.id);
+                    xml.campo("idDono", mercado.idDono);
+                    xml.campo("nome", mercado.nome);
+                    xml.campo("endereco", mercado.endereco);
+                    escreverProdutos(xml, mercado.produtos);
+                    escreverEntregadores(xml, mercado.entregadores);
+                    xml.campo("abre", mercado.abre);
+                    xml.campo("fecha", mercado.fecha);
+                    xml.campo("tipoMercado", mercado.tipoMercado);
+                    xml.fechar("mercado");
                 } else if (empresa.isWhatType().equals("Farmacia")) {
                     Farmacia farmacia = (Farmacia) empresa;
-                    writer.write("    <farmacia>\n");
-                    writer.write("        <id>" + farmacia.id + "</id>\n");
-                    writer.write("        <idDono>" + farmacia.idDono + "</idDono>\n");
-                    writer.write("        <nome>" + farmacia.nome + "</nome>\n");
-                    writer.write("        <endereco>" + farmacia.endereco + "</endereco>\n");
-                    writer.write("        <produtos>\n");
-                    for (Produto produto : farmacia.produtos) {
-                        writer.write("            <produto>\n");
-                        writer.write("                <numero>" + produto.numero + "</numero>\n");
-                        writer.write("                <nome>" + produto.nome + "</nome>\n");
-                        writer.write("                <valor>" + produto.valor + "</valor>\n");
-                        writer.write("                <categoria>" + produto.categoria + "</categoria>\n");
-                        writer.write("            </produto>\n");
-                    }
-                    writer.write("        <entregadores>\n");
-                    for (int entregador : farmacia.entregadores) {
-                        writer.write("            <entregador>" + entregador + "</entregador>\n");
-                    }
-                    writer.write("        </entregadores>\n");
-                    writer.write("        </produtos>\n");
-                    writer.write("        <aberto24horas>" + farmacia.aberto24horas + "</aberto24horas>\n");
-                    writer.write("        <numeroFuncionarios>" + farmacia.numeroFuncionarios + "</numeroFuncionarios>\n");
-                    writer.write("    </farmacia>\n");
+                    xml.abrir("farmacia");
+                    xml.campo("id", farmacia.id);
+                    xml.campo("idDono", farmacia.idDono);
+                    xml.campo("nome", farmacia.nome);
+                    xml.campo("endereco", farmacia.endereco);
+                    escreverProdutos(xml, farmacia.produtos);
+                    escreverEntregadores(xml, farmacia.entregadores);
+                    xml.campo("aberto24horas", farmacia.aberto24horas);
+                    xml.campo("numeroFuncionarios", farmacia.numeroFuncionarios);
+                    xml.fechar("farmacia");
                 } else if (empresa.isWhatType().equals("Restaurante")) {
                     Restaurante restaurante = (Restaurante) empresa;
-                    writer.write("    <restaurante>\n");
-                    writer.write("        <id>" + restaurante.id + "</id>\n");
-                    writer.write("        <nome>" + restaurante.nome + "</nome>\n");
-                    writer.write("        <endereco>" + restaurante.endereco + "</endereco>\n");
-                    writer.write("        <tipoCozinha>" + restaurante.tipoCozinha + "</tipoCozinha>\n");
-                    writer.write("        <idDono>" + restaurante.idDono + "</idDono>\n");
-                    writer.write("        <produtos>\n");
-                    for (Produto produto : restaurante.produtos) {
-                        writer.write("            <produto>\n");
-                        writer.write("                <numero>" + produto.numero + "</numero>\n");
-                        writer.write("                <nome>" + produto.nome + "</nome>\n");
-                        writer.write("                <valor>" + produto.valor + "</valor>\n");
-                        writer.write("                <categoria>" + produto.categoria + "</categoria>\n");
-                        writer.write("            </produto>\n");
-                    }
-                    writer.write("        </produtos>\n");
-                    writer.write("        <entregadores>\n");
-                    for (int entregador : restaurante.entregadores) {
-                        writer.write("            <entregador>" + entregador + "</entregador>\n");
-                    }
-                    writer.write("        </entregadores>\n");
-
-                    writer.write("    </restaurante>\n");
-                }
-
-                writer.write("</restaurantes>\n");
+                    xml.abrir("restaurante");
+                    xml.campo("id", restaurante.id);
+                    xml.campo("nome", restaurante.nome);
+                    xml.campo("endereco", restaurante.endereco);
+                    xml.campo("tipoCozinha", restaurante.tipoCozinha);
+                    xml.campo("idDono", restaurante.idDono);
+                    escreverProdutos(xml, restaurante.produtos);
+                    escreverEntregadores(xml, restaurante.entregadores);
+                    xml.fechar("restaurante");
                 }
+            }
 
-        } catch (IOException e) {
-            e.printStackTrace();
+            xml.fechar("empresas");
+            xml.flush();
+            arquivo.concluir();
         }
     }
 
-    public static void salvarPedidos(List<Pedido> pedidos, String fileName) {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(fileName))) {
-            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
-            writer.write("<pedidos>\n");
+    public static void salvarPedidos(List<Pedido> pedidos, String fileName) throws IOException {
+        try (AtomicFileWriter arquivo = AtomicFileWriter.abrir(fileName)) {
+            XMLWriter xml = new XMLWriter(arquivo);
+            xml.declaracao();
+            xml.abrir("pedidos");
 
             for (Pedido pedido : pedidos) {
-                writer.write("    <pedido>\n");
-                writer.write("        <id>" + pedido.numero + "</id>\n");
-                writer.write("        <idCliente>" + pedido.cliente + "</idCliente>\n");
-                writer.write("        <idRestaurante>" + pedido.empresa + "</idRestaurante>\n");
-                writer.write("        <estado>" + pedido.estado + "</estado>\n");
-
-                writer.write("        <produtos>\n");
-                for (Produto produto : pedido.produtos) {
-                    writer.write("            <produto>\n");
-                    writer.write("                <numero>" + produto.numero + "</numero>\n");
-                    writer.write("                <nome>" + produto.nome + "</nome>\n");
-                    writer.write("                <valor>" + produto.valor + "</valor>\n");
-                    writer.write("                <categoria>" + produto.categoria + "</categoria>\n");
-                    writer.write("            </produto>\n");
-                }
-                writer.write("        </produtos>\n");
-
-                writer.write("    </pedido>\n");
+                xml.abrir("pedido");
+                xml.campo("id", pedido.numero);
+                xml.campo("idCliente", pedido.cliente);
+                xml.campo("idRestaurante", pedido.empresa);
+                xml.campo("estado", pedido.estado.texto);
+                escreverProdutos(xml, pedido.produtos);
+                xml.fechar("pedido");
             }
 
-            writer.write("</pedidos>\n");
-
-        } catch (IOException e) {
-            e.printStackTrace();
+            xml.fechar("pedidos");
+            xml.flush();
+            arquivo.concluir();
         }
     }
 
-    public static void salvarEntregas(List<Entrega> entregas, String fileName) {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(fileName))) {
-            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
-            writer.write("<entregas>\n");
+    public static void salvarEntregas(List<Entrega> entregas, String fileName) throws IOException {
+        try (AtomicFileWriter arquivo = AtomicFileWriter.abrir(fileName)) {
+            XMLWriter xml = new XMLWriter(arquivo);
+            xml.declaracao();
+            xml.abrir("entregas");
 
             for (Entrega entrega : entregas) {
-                writer.write("    <entrega>\n");
-                writer.write("        <id>" + entrega.id + "</id>\n");
-                writer.write("        <cliente>" + entrega.cliente + "</cliente>\n");
-                writer.write("        <empresa>" + entrega.empresa + "</empresa>\n");
-                writer.write("        <pedido>" + entrega.pedido + "</pedido>\n");
-                writer.write("        <entregador>" + entrega.entregador + "</entregador>\n");
-                writer.write("        <destino>" + entrega.destino + "</destino>\n");
-
-                writer.write("        <produtos>\n");
-                for (String produto : entrega.produtos) {
-                    writer.write("            <produto>" + produto + "</produto>\n");
+                xml.abrir("entrega");
+                xml.campo("id", entrega.id);
+                xml.campo("cliente", entrega.cliente);
+                xml.campo("empresa", entrega.empresa);
+                xml.campo("pedido", entrega.pedido);
+                xml.campo("entregador", entrega.entregador);
+                xml.campo("destino", entrega.destino);
+                if (entrega.produtos != null) {
+                    xml.abrir("produtos");
+                    for (String produto : entrega.produtos) {
+                        xml.campo("produto", produto);
+                    }
+                    xml.fechar("produtos");
                 }
-                writer.write("        </produtos>\n");
-
-                writer.write("    </entrega>\n");
+                xml.fechar("entrega");
             }
 
-            writer.write("</entregas>\n");
+            xml.fechar("entregas");
+            xml.flush();
+            arquivo.concluir();
+        }
+    }
+
+    // O mesmo bloco <produtos> serve para empresas e pedidos.
+    private static void escreverProdutos(XMLWriter xml, List<Produto> produtos) throws IOException {
+        xml.abrir("produtos");
+        for (Produto produto : produtos) {
+            xml.abrir("produto");
+            xml.campo("numero", produto.numero);
+            xml.campo("nome", produto.nome);
+            xml.campo("valor", produto.valor);
+            xml.campo("categoria", produto.categoria);
+            xml.fechar("produto");
+        }
+        xml.fechar("produtos");
+    }
 
-        } catch (IOException e) {
-            e.printStackTrace();
+    private static void escreverEntregadores(XMLWriter xml, List<Integer> entregadores) throws IOException {
+        xml.abrir("entregadores");
+        for (int entregador : entregadores) {
+            xml.campo("entregador", entregador);
         }
+        xml.fechar("entregadores");
     }
 
     public static List<User> lerUsuarios(String fileName) {
-        List<User> usuarios = new ArrayList<>();
-        try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
-            String line;
-            User usuario = null;
+        return ParallelLoader.carregar(fileName, new String[]{"cliente", "dono", "entregador"}, XMLUtils::lerUsuarios);
+    }
 
-            while ((line = reader.readLine()) != null) {
-                line = line.trim();
+    public static void lerUsuarios(XMLScanner xml, List<User> usuarios) throws IOException {
+        User usuario = null;
+        int evento;
 
-                if (line.startsWith("<cliente>")) {
-                    usuario = new Cliente("", null, null, null);
-                } else if (line.startsWith("<dono>")) {
-                    usuario = new Dono("", null, null, null, null);
-                } else if (line.startsWith("<entregador>")) {
-                    usuario = new Entregador("", null, null, null, null, null);
-                } else if (line.startsWith("<id>")) {
-                    usuario.id = Integer.parseInt(line.replaceAll("<.*?>", ""));
-                } else if (line.startsWith("<nome>")) {
-                    usuario.nome = line.replaceAll("<.*?>", "");
-                } else if (line.startsWith("<email>")) {
-                    usuario.email = line.replaceAll("<.*?>", "");
-                } else if (line.startsWith("<senha>")) {
-                    usuario.senha = line.replaceAll("<.*?>", "");
-                } else if (usuario != null && line.startsWith("<endereco>")) {
-                    usuario.endereco = line.replaceAll("<.*?>", "");
-                } else if (usuario != null && usuario.isWhatType().equals("Dono") && line.startsWith("<cpf>")) {
-                    ((Dono) usuario).cpf = line.replaceAll("<.*?>", "");
-                } else if (usuario != null && usuario.isWhatType().equals("Entregador") && line.startsWith("<veiculo>")) {
-                    ((Entregador) usuario).veiculo = line.replaceAll("<.*?>", "");
-                } else if (usuario != null && usuario.isWhatType().equals("Entregador") && line.startsWith("<placa>")) {
-                    ((Entregador) usuario).placa = line.replaceAll("<.*?>", "");
-                } else if (usuario != null && usuario.isWhatType().equals("Entregador") && line.startsWith("<empresas>")) {
-                    List<Integer> empresas = new ArrayList<>();
-                    while (!(line = reader.readLine().trim()).startsWith("</empresas>")) {
-                        int empresaId = Integer.parseInt(line.replaceAll("<.*?>", ""));
-                        empresas.add(empresaId);
-                    }
-                    ((Entregador) usuario).empresas = empresas.stream().mapToInt(i -> i).boxed().collect(Collectors.toCollection(ArrayList::new));
-                } else if (usuario != null && usuario.isWhatType().equals("Entregador") && line.startsWith("<ocupado>")) {
-                    ((Entregador) usuario).ocupado = Boolean.parseBoolean(line.replaceAll("<.*?>", ""));
-                } else if (line.startsWith("</cliente>") || line.startsWith("</dono>") || line.startsWith("</entregador>")) {
+        while ((evento = xml.proximo()) != XMLScanner.FIM_ARQUIVO) {
+            if (evento == XMLScanner.FIM) {
+                if (usuario != null && (xml.eh("cliente") || xml.eh("dono") || xml.eh("entregador"))) {
                     usuarios.add(usuario);  // Adiciona o usuário à lista
+                    usuario = null;
                 }
+            } else if (xml.eh("cliente")) {
+                usuario = new Cliente("", null, null, null);
+            } else if (xml.eh("dono")) {
+                usuario = new Dono("", null, null, null, null);
+            } else if (xml.eh("entregador")) {
+                usuario = new Entregador("", null, null, null, null, null);
+            } else if (usuario == null) {
+                continue;
+            } else if (xml.eh("id")) {
+                usuario.id = xml.lerInt();
+            } else if (xml.eh("nome")) {
+                usuario.nome = xml.lerTexto();
+            } else if (xml.eh("email")) {
+                usuario.email = xml.lerTexto();
+            } else if (xml.eh("senha")) {
+                usuario.senha = xml.lerTexto();
+            } else if (xml.eh("endereco")) {
+                usuario.endereco = xml.lerTexto();
+            } else if (usuario.isWhatType().equals("Dono") && xml.eh("cpf")) {
+                ((Dono) usuario).cpf = xml.lerTexto();
+            } else if (usuario.isWhatType().equals("Entregador") && xml.eh("veiculo")) {
+                ((Entregador) usuario).veiculo = xml.lerTexto();
+            } else if (usuario.isWhatType().equals("Entregador") && xml.eh("placa")) {
+                ((Entregador) usuario).placa = xml.lerTexto();
+            } else if (usuario.isWhatType().equals("Entregador") && xml.eh("empresa")) {
+                ((Entregador) usuario).empresas.add(xml.lerInt());
+            } else if (usuario.isWhatType().equals("Entregador") && xml.eh("ocupado")) {
+                ((Entregador) usuario).ocupado = xml.lerBoolean();
             }
-        } catch (IOException e) {
-            e.printStackTrace();
         }
-        return usuarios;
     }
 
     public static List<Enterprise> lerEmpresas(String fileName) {
-        List<Enterprise> empresas = new ArrayList<>();
-        try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
-            String line;
-            Enterprise empresa = null;
+        return ParallelLoader.carregar(fileName, new String[]{"mercado", "farmacia", "restaurante"}, XMLUtils::lerEmpresas);
+    }
 
-            while ((line = reader.readLine()) != null) {
-                line = line.trim();
+    public static void lerEmpresas(XMLScanner xml, List<Enterprise> empresas) throws IOException {
+        Enterprise empresa = null;
+        int evento;
 
-                if (line.startsWith("<mercado>")) {
-                    empresa = new Mercado(0, null, null, null, null, null);
-                } else if (line.startsWith("<farmacia>")) {
-                    empresa = new Farmacia(0, null, null, null, null);
-                } else if (line.startsWith("<restaurante>")) {
-                    empresa = new Restaurante(null, null, null, 0);
-                } else if (line.startsWith("<id>")) {
-                    empresa.id = Integer.parseInt(line.replaceAll("<.*?>", ""));
-                } else if (line.startsWith("<idDono>")) {
-                    empresa.idDono = Integer.parseInt(line.replaceAll("<.*?>", ""));
-                } else if (line.startsWith("<nome>")) {
-                    empresa.nome = line.replaceAll("<.*?>", "");
-                } else if (line.startsWith("<endereco>")) {
-                    empresa.endereco = line.replaceAll("<.*?>", "");
-                } else if (empresa != null && empresa.isWhatType().equals("Restaurante") && line.startsWith("<tipoCozinha>")) {
-                    ((Restaurante) empresa).tipoCozinha = line.replaceAll("<.*?>", "");
-                }  else if (empresa != null && empresa.isWhatType().equals("Mercado") && line.startsWith("<abre>")) {
-                    ((Mercado) empresa).abre = line.replaceAll("<.*?>", "");
-                } else if (empresa != null && empresa.isWhatType().equals("Mercado") && line.startsWith("<fecha>")) {
-                    ((Mercado) empresa).fecha = line.replaceAll("<.*?>", "");
-                } else if (empresa != null && empresa.isWhatType().equals("Mercado") && line.startsWith("<tipoMercado>")) {
-                    ((Mercado) empresa).tipoMercado = line.replaceAll("<.*?>", "");
-                } else if (empresa != null && empresa.isWhatType().equals("Farmacia") && line.startsWith("<aberto24horas>")) {
-                    ((Farmacia) empresa).aberto24horas = Boolean.parseBoolean(line.replaceAll("<.*?>", ""));
-                } else if (empresa != null && empresa.isWhatType().equals("Farmacia") && line.startsWith("<numeroFuncionarios>")) {
-                    ((Farmacia) empresa).numeroFuncionarios = Integer.parseInt(line.replaceAll("<.*?>", ""));
-                } else if (empresa != null && line.startsWith("<produtos>")) {
-                    List<Produto> produtos = new ArrayList<>();
-                    while (!(line = reader.readLine().trim()).startsWith("</produtos>")) {
-                        if (line.startsWith("<produto>")) {
-                            Produto produto = new Produto("", 0, "");
-                            while (!(line = reader.readLine().trim()).startsWith("</produto>")) {
-                                if (line.startsWith("<numero>")) {
-                                    produto.numero = Integer.parseInt(line.replaceAll("<.*?>", ""));
-                                } else if (line.startsWith("<nome>")) {
-                                    produto.nome = line.replaceAll("<.*?>", "");
-                                } else if (line.startsWith("<valor>")) {
-                                    produto.valor = Float.parseFloat(line.replaceAll("<.*?>", ""));
-                                } else if (line.startsWith("<categoria>")) {
-                                    produto.categoria = line.replaceAll("<.*?>", "");
-                                }
-                            }
-                            produtos.add(produto);
-                        }
-                    }
-                    empresa.produtos = produtos;
-                } else if (empresa != null && line.startsWith("<entregadores>")) {
-                    List<Integer> entregadores = new ArrayList<>();
-                    while (!(line = reader.readLine().trim()).startsWith("</entregadores>")) {
-                        int entregadorId = Integer.parseInt(line.replaceAll("<.*?>", ""));
-                        entregadores.add(entregadorId);
-                    }
-                    empresa.entregadores = entregadores;
-                } else if (line.startsWith("</mercado>") || line.startsWith("</farmacia>") || line.startsWith("</restaurante>")) {
+        while ((evento = xml.proximo()) != XMLScanner.FIM_ARQUIVO) {
+            if (evento == XMLScanner.FIM) {
+                if (empresa != null && (xml.eh("mercado") || xml.eh("farmacia") || xml.eh("restaurante"))) {
                     empresas.add(empresa);
+                    empresa = null;
                 }
+            } else if (xml.eh("mercado")) {
+                empresa = new Mercado(0, null, null, null, null, null);
+            } else if (xml.eh("farmacia")) {
+                empresa = new Farmacia(0, null, null, null, null);
+            } else if (xml.eh("restaurante")) {
+                empresa = new Restaurante(null, null, null, 0);
+            } else if (empresa == null) {
+                continue;
+            } else if (xml.eh("id")) {
+                empresa.id = xml.lerInt();
+            } else if (xml.eh("idDono")) {
+                empresa.idDono = xml.lerInt();
+            } else if (xml.eh("nome")) {
+                empresa.nome = xml.lerTexto();
+            } else if (xml.eh("endereco")) {
+                empresa.endereco = xml.lerTexto();
+            } else if (empresa.isWhatType().equals("Restaurante") && xml.eh("tipoCozinha")) {
+                ((Restaurante) empresa).tipoCozinha = xml.lerTexto();
+            } else if (empresa.isWhatType().equals("Mercado") && xml.eh("abre")) {
+                ((Mercado) empresa).abre = xml.lerTexto();
+            } else if (empresa.isWhatType().equals("Mercado") && xml.eh("fecha")) {
+                ((Mercado) empresa).fecha = xml.lerTexto();
+            } else if (empresa.isWhatType().equals("Mercado") && xml.eh("tipoMercado")) {
+                ((Mercado) empresa).tipoMercado = xml.lerTexto();
+            } else if (empresa.isWhatType().equals("Farmacia") && xml.eh("aberto24horas")) {
+                ((Farmacia) empresa).aberto24horas = xml.lerBoolean();
+            } else if (empresa.isWhatType().equals("Farmacia") && xml.eh("numeroFuncionarios")) {
+                ((Farmacia) empresa).numeroFuncionarios = xml.lerInt();
+            } else if (xml.eh("produto")) {
+                empresa.produtos.add(lerProduto(xml));
+            } else if (xml.eh("entregador")) {
+                // Tambem cobre arquivos antigos em que as farmacias gravavam <entregadores> dentro de <produtos>.
+                empresa.entregadores.add(xml.lerInt());
             }
-        } catch (IOException e) {
-            e.printStackTrace();
         }
-        return empresas;
     }
 
     public static List<Pedido> lerPedidos(String fileName) {
-        List<Pedido> pedidos = new ArrayList<>();
-        try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
-            String line;
-            Pedido pedido = null;
+        return ParallelLoader.carregar(fileName, new String[]{"pedido"}, XMLUtils::lerPedidos);
+    }
 
-            while ((line = reader.readLine()) != null) {
-                line = line.trim();
+    public static void lerPedidos(XMLScanner xml, List<Pedido> pedidos) throws IOException {
+        Pedido pedido = null;
+        int evento;
 
-                if (line.startsWith("<pedido>")) {
-                    pedido = new Pedido(0, 0);
-                } else if (line.startsWith("<id>")) {
-                    pedido.numero = Integer.parseInt(line.replaceAll("<.*?>", ""));
-                } else if (line.startsWith("<idCliente>")) {
-                    pedido.cliente = Integer.parseInt(line.replaceAll("<.*?>", ""));
-                } else if (line.startsWith("<idRestaurante>")) {
-                    pedido.empresa = Integer.parseInt(line.replaceAll("<.*?>", ""));
-                } else if (line.startsWith("<estado>")) {
-                    pedido.estado = line.replaceAll("<.*?>", "");
-                } else if (line.startsWith("<produtos>")) {
-                    ArrayList<Produto> produtos = new ArrayList<>();
-                    while (!(line = reader.readLine().trim()).startsWith("</produtos>")) {
-                        if (line.startsWith("<produto>")) {
-                            Produto produto = new Produto(null, 0, null);
-                            while (!(line = reader.readLine().trim()).startsWith("</produto>")) {
-                                if (line.startsWith("<numero>")) {
-                                    produto.numero = Integer.parseInt(line.replaceAll("<.*?>", ""));
-                                } else if (line.startsWith("<nome>")) {
-                                    produto.nome = line.replaceAll("<.*?>", "");
-                                } else if (line.startsWith("<valor>")) {
-                                    produto.valor = Float.parseFloat(line.replaceAll("<.*?>", ""));
-                                } else if (line.startsWith("<categoria>")) {
-                                    produto.categoria = line.replaceAll("<.*?>", "");
-                                }
-                            }
-                            produtos.add(produto);
-                        }
-                    }
-                    pedido.produtos = produtos;
-                } else if (line.startsWith("</pedido>")) {
+        while ((evento = xml.proximo()) != XMLScanner.FIM_ARQUIVO) {
+            if (evento == XMLScanner.FIM) {
+                if (pedido != null && xml.eh("pedido")) {
                     pedidos.add(pedido);
+                    pedido = null;
                 }
+            } else if (xml.eh("pedido")) {
+                pedido = new Pedido(0, 0);
+            } else if (pedido == null) {
+                continue;
+            } else if (xml.eh("id")) {
+                pedido.numero = xml.lerInt();
+            } else if (xml.eh("idCliente")) {
+                pedido.cliente = xml.lerInt();
+            } else if (xml.eh("idRestaurante")) {
+                pedido.empresa = xml.lerInt();
+            } else if (xml.eh("estado")) {
+                pedido.estado = EstadoPedido.de(xml.lerTexto());
+            } else if (xml.eh("produto")) {
+                pedido.produtos.add(lerProduto(xml));
             }
-        } catch (IOException e) {
-            e.printStackTrace();
         }
-        return pedidos;
     }
 
     public static List<Entrega> lerEntregas(String fileName) {
-        List<Entrega> entregas = new ArrayList<>();
-        try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
-            String line;
-            Entrega entrega = null;
+        return ParallelLoader.carregar(fileName, new String[]{"entrega"}, XMLUtils::lerEntregas);
+    }
 
-            while ((line = reader.readLine()) != null) {
-                line = line.trim();
+    public static void lerEntregas(XMLScanner xml, List<Entrega> entregas) throws IOException {
+        Entrega entrega = null;
+        int evento;
 
-                if (line.startsWith("<entrega>")) {
-                    entrega = new Entrega(null, null, null, null, null, null);
-                } else if (entrega != null && line.startsWith("<id>")) {
-                    entrega.id = Integer.parseInt(line.replaceAll("<.*?>", ""));
-                } else if (entrega != null && line.startsWith("<cliente>")) {
-                    entrega.cliente = line.replaceAll("<.*?>", "");
-                } else if (entrega != null && line.startsWith("<empresa>")) {
-                    entrega.empresa = line.replaceAll("<.*?>", "");
-                } else if (entrega != null && line.startsWith("<pedido>")) {
-                    entrega.pedido = Integer.parseInt(line.replaceAll("<.*?>", ""));
-                } else if (entrega != null && line.startsWith("<entregador>")) {
-                    entrega.entregador = Integer.parseInt(line.replaceAll("<.*?>", ""));
-                } else if (entrega != null && line.startsWith("<destino>")) {
-                    entrega.destino = line.replaceAll("<.*?>", "");
-                } else if (entrega != null && line.startsWith("<produtos>")) {
-                    ArrayList<String> produtos = new ArrayList<>();
-                    while (!(line = reader.readLine().trim()).startsWith("</produtos>")) {
-                        if (line.startsWith("<produto>")) {
-                            produtos.add(line.replaceAll("<.*?>", ""));
-                        }
-                    }
-                    entrega.produtos = produtos;
-                } else if (entrega != null && line.startsWith("</entrega>")) {
+        while ((evento = xml.proximo()) != XMLScanner.FIM_ARQUIVO) {
+            if (evento == XMLScanner.FIM) {
+                if (entrega != null && xml.eh("entrega")) {
                     entregas.add(entrega);
+                    entrega = null;
                 }
+            } else if (xml.eh("entrega")) {
+                entrega = new Entrega(null, null, null, null, null, null);
+            } else if (entrega == null) {
+                continue;
+            } else if (xml.eh("id")) {
+                entrega.id = xml.lerInt();
+            } else if (xml.eh("cliente")) {
+                entrega.cliente = xml.lerTexto();
+            } else if (xml.eh("empresa")) {
+                entrega.empresa = xml.lerTexto();
+            } else if (xml.eh("pedido")) {
+                entrega.pedido = xml.lerInt();
+            } else if (xml.eh("entregador")) {
+                entrega.entregador = xml.lerInt();
+            } else if (xml.eh("destino")) {
+                entrega.destino = xml.lerTexto();
+            } else if (xml.eh("produtos")) {
+                entrega.produtos = new ArrayList<>();
+            } else if (xml.eh("produto")) {
+                entrega.produtos.add(xml.lerTexto());
             }
-        } catch (IOException e) {
-            e.printStackTrace();
         }
-        return entregas;
     }
 
+    // Le um <produto> ate a tag de fechamento; os campos do produto tem os mesmos nomes dos da empresa e do pedido.
+    private static Produto lerProduto(XMLScanner xml) throws IOException {
+        Produto produto = new Produto("", 0, "");
+        int evento;
 
-}
\ No newline at end of file
+        while ((evento = xml.proximo()) != XMLScanner.FIM_ARQUIVO) {
+            if (evento == XMLScanner.FIM) {
+                if (xml.eh("produto")) {
+                    break;
+                }
+            } else if (xml.eh("numero")) {
+                produto.numero = xml.lerInt();
+            } else if (xml.eh("nome")) {
+                produto.nome = xml.lerTexto();
+            } else if (xml.eh("valor")) {
+                produto.valor = xml.lerFloat();
+            } else if (xml.eh("categoria")) {
+                produto.categoria = xml.lerTexto();
+            }
+        }
+        return produto;
+    }
+}